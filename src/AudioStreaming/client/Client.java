@@ -227,6 +227,10 @@ public class Client {
             LeaseSet leaseSet = new LeaseSet(leases, clientDest, destElgamalKey.getPublic(), destEd25519Key.getPrivate());
 
             socket.sendMessage(new CreateLeaseSet(sessionID, destElgamalKey.getPrivate(), leaseSet));
+            // router replaces our tunnels before they expire, sign a new lease set each time
+            socket.setLeaseSetHandler(request -> new CreateLeaseSet(sessionID, destElgamalKey.getPrivate(),
+                    new LeaseSet(request.getLeases(), clientDest, destElgamalKey.getPublic(),
+                            destEd25519Key.getPrivate())));
 
             // Get the clients destination hash
             clientHash = Base64.toBase64String(clientDest.getHash());
@@ -187,6 +187,9 @@ public class Server {
         LeaseSet leaseSet = new LeaseSet(leases, clientDest, destElgamalKey.getPublic(), privateKey);
 
         socket.sendMessage(new CreateLeaseSet(sessionID, destElgamalKey.getPrivate(), leaseSet));
+        // router replaces our tunnels before they expire, sign a new lease set each time
+        socket.setLeaseSetHandler(request -> new CreateLeaseSet(sessionID, destElgamalKey.getPrivate(),
+                new LeaseSet(request.getLeases(), clientDest, destElgamalKey.getPublic(), privateKey)));
 
         System.out.println("Router ready");
         // --------- Processing Messages --------- //
@@ -1,10 +1,14 @@
 package common.I2P.I2NP;
 
+import common.transport.I2NPCodec;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 
 /**
  * Request to look something up in the network database
@@ -52,6 +56,15 @@ public class DatabaseLookup extends I2NPMessage{
         deserialize(json);
     }
 
+    /**
+     * Create DatabaseLookup from binary
+     * @param buf buffer to read message from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    DatabaseLookup(ByteBuffer buf) throws InvalidObjectException {
+        readBinary(buf);
+    }
+
     /**
      * Set necessary data is reply is needed(in class sets reply token to 1)
      * @param replyTunnelID The tunnelID to send reply to
@@ -94,6 +107,30 @@ public class DatabaseLookup extends I2NPMessage{
         return jsonObj;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        I2NPCodec.writeBytes(out, key);
+        I2NPCodec.writeBytes(out, fromHash);
+        out.writeByte(replyFlag);
+
+        //put reply data if necessary
+        if (replyFlag == 1)
+            out.writeInt(replyTunnelID);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        key = I2NPCodec.readBytes(buf);
+        fromHash = I2NPCodec.readBytes(buf);
+        if (key == null || fromHash == null)
+            throw new InvalidObjectException("Missing key or from hash");
+        replyFlag = buf.get();
+
+        //get reply data if necessary
+        if (replyFlag == 1)
+            replyTunnelID = buf.getInt();
+    }
+
     public byte[] getKey() {
         return key;
     }
@@ -1,11 +1,15 @@
 package common.I2P.I2NP;
 
+import common.transport.I2NPCodec;
 import merrimackutil.json.types.JSONArray;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 /**
@@ -46,6 +50,15 @@ public class DatabaseSearchReply extends I2NPMessage{
         deserialize(json);
     }
 
+    /**
+     * Create DatabaseSearchReply from binary
+     * @param buf buffer to read message from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    DatabaseSearchReply(ByteBuffer buf) throws InvalidObjectException {
+        readBinary(buf);
+    }
+
     @Override
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         if (!(jsonType instanceof JSONObject))
@@ -81,6 +94,31 @@ public class DatabaseSearchReply extends I2NPMessage{
         return jsonObject;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        I2NPCodec.writeBytes(out, key);
+        I2NPCodec.writeBytes(out, fromHash);
+
+        out.writeShort(peerHashes.size());
+        for (byte[] hash : peerHashes) {
+            I2NPCodec.writeBytes(out, hash);
+        }
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        key = I2NPCodec.readBytes(buf);
+        fromHash = I2NPCodec.readBytes(buf);
+        if (key == null || fromHash == null)
+            throw new InvalidObjectException("Missing key or from hash");
+
+        int numHashes = Short.toUnsignedInt(buf.getShort());
+        peerHashes = new ArrayList<>(numHashes);
+        for (int i = 0; i < numHashes; i++) {
+            peerHashes.add(I2NPCodec.readBytes(buf));
+        }
+    }
+
     public byte[] getFromHash() {
         return fromHash;
     }
@@ -4,11 +4,15 @@ import common.I2P.NetworkDB.Lease;
 import common.I2P.NetworkDB.LeaseSet;
 import common.I2P.NetworkDB.Record;
 import common.I2P.NetworkDB.RouterInfo;
+import common.transport.I2NPCodec;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 
 public class DatabaseStore extends I2NPMessage{
     /**
@@ -54,6 +58,15 @@ public class DatabaseStore extends I2NPMessage{
         deserialize(message);
     }
 
+    /**
+     * Create DatabaseStore from binary
+     * @param buf buffer to read message from
+     * @throws InvalidObjectException Throws if bytes are not a valid DatabaseStore
+     */
+    DatabaseStore(ByteBuffer buf) throws InvalidObjectException {
+        readBinary(buf);
+    }
+
     /**
      * Create DatabaseStore message for {@code record}
      * @param record Record to store
@@ -128,6 +141,42 @@ public class DatabaseStore extends I2NPMessage{
         return databaseStoreJSON;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeByte(storeType);
+        I2NPCodec.writeBytes(out, key);
+        out.writeInt(replyToken);
+
+        //if reply token greater than 0 then we need reply data
+        if (replyToken > 0) {
+            out.writeInt(replyTunnelID);
+            I2NPCodec.writeBytes(out, replyGateway);
+        }
+
+        //add record
+        record.writeBinary(out);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        storeType = buf.get();
+        key = I2NPCodec.readBytes(buf);
+        replyToken = buf.getInt();
+
+        //if reply token greater than 0 then we need to get reply data
+        if (replyToken > 0) {
+            replyTunnelID = buf.getInt();
+            replyGateway = I2NPCodec.readBytes(buf);
+        }
+
+        //switch based on type of database store to get proper date out
+        switch(storeType) {
+            case 0-> record = new RouterInfo(buf);
+            case 1 -> record = new LeaseSet(buf);
+            default -> throw new InvalidObjectException("Bad store type " + storeType);
+        }
+    }
+
     public int getStoreType() {
         return storeType;
     }
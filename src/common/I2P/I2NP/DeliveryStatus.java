@@ -3,7 +3,10 @@ package common.I2P.I2NP;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 
 /**
  * A simple message acknowledgment
@@ -27,6 +30,15 @@ public class DeliveryStatus extends I2NPMessage{
         deserialize(json);
     }
 
+    /**
+     * Create Deliver Status from binary
+     * @param buf buffer to read message from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    DeliveryStatus(ByteBuffer buf) throws InvalidObjectException {
+        readBinary(buf);
+    }
+
     /**
      * Create Delivery Status message
      * @param msgID msg ID of the message for this delivery static
@@ -37,6 +49,18 @@ public class DeliveryStatus extends I2NPMessage{
         this.timestamp = timestamp;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(msgID);
+        out.writeLong(timestamp);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) {
+        msgID = buf.getInt();
+        timestamp = buf.getLong();
+    }
+
     @Override
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         if (!(jsonType instanceof JSONObject))
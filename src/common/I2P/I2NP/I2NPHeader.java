@@ -1,17 +1,23 @@
 package common.I2P.I2NP;
 
+import common.transport.BinarySerializable;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
-public class I2NPHeader implements JSONSerializable {
+public class I2NPHeader implements JSONSerializable, BinarySerializable {
     /**
      * Types of supported I2NP Messages
      */
@@ -61,8 +67,13 @@ public class I2NPHeader implements JSONSerializable {
      * Checksum of payload SHA256 hash truncated to three byte(use 3 bytes to avoid redudant padding on base64 encoding)
      * @apiNote I2P spec has this as 1 byte, but we are using base64 strings to send this so we are using 3 bytes since
      * base64 encoding is 6 bit aligned(no padding bits at 3 bytes)
+     * @implNote only used by JSON encoding and computed lazily, binary encoding uses {@code binaryChecksumValid}
      */
     private byte[] chks;
+    /**
+     * Result of checking the 1 byte checksum of a message read from binary, null if message was not read from binary
+     */
+    private Boolean binaryChecksumValid;
     /**
      * Message for this I2NP header
      */
@@ -81,14 +92,21 @@ public class I2NPHeader implements JSONSerializable {
         this.expiration = expiration;
 
         this.message = message;
-
-        this.chks = createCheckSum();
     }
 
     public I2NPHeader(JSONObject json) throws InvalidObjectException {
         deserialize(json);
     }
 
+    /**
+     * Create I2NPHeader from binary, version byte must already be consumed
+     * @param buf Buffer to read header and message from
+     * @throws InvalidObjectException throws if bytes are not a valid I2NP message
+     */
+    public I2NPHeader(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
     @Override
     public JSONObject toJSONType() {
         JSONObject messageJSON = new JSONObject();
@@ -96,7 +114,7 @@ public class I2NPHeader implements JSONSerializable {
         messageJSON.put("type", type.getValue());
         messageJSON.put("msgID", msgID);
         messageJSON.put("expiration", expiration);
-        messageJSON.put("chks", Base64.toBase64String(chks));
+        messageJSON.put("chks", Base64.toBase64String(getCheckSum()));
         messageJSON.put("message", message.toJSONType());
 
         return messageJSON;
@@ -145,6 +163,97 @@ public class I2NPHeader implements JSONSerializable {
         }
     }
 
+    /**
+     * Write header in binary {@code type(1) msgID(4) expiration(8) chks(1) size(4) message(size)}
+     * @param out Stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        message.writeBinary(new DataOutputStream(body));
+        byte[] bodyBytes = body.toByteArray();
+
+        out.writeByte(type.getValue());
+        out.writeInt(msgID);
+        out.writeLong(expiration);
+        out.writeByte(binaryCheckSum(ByteBuffer.wrap(bodyBytes)));
+        out.writeInt(bodyBytes.length);
+        out.write(bodyBytes);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        type = TYPE.fromValue(Byte.toUnsignedInt(buf.get()));
+        msgID = buf.getInt();
+        expiration = buf.getLong();
+        byte chk = buf.get();
+        int size = buf.getInt();
+        if (size < 0 || size > buf.remaining())
+            throw new InvalidObjectException("Bad message size " + size);
+
+        //read message from a view of the body so we do not copy payload
+        ByteBuffer body = buf.slice(buf.position(), size);
+        buf.position(buf.position() + size);
+        binaryChecksumValid = binaryCheckSum(body.duplicate()) == chk;
+
+        switch (type) {
+            case TYPE.DATABASESTORE:
+                message = new DatabaseStore(body);
+                break;
+            case TYPE.DATABASELOOKUP:
+                message = new DatabaseLookup(body);
+                break;
+            case TYPE.DATABASESEARCHREPLY:
+                message = new DatabaseSearchReply(body);
+                break;
+            case TYPE.DELIVERYSTATUS:
+                message = new DeliveryStatus(body);
+                break;
+            case TYPE.TUNNELBUILD:
+                message = new TunnelBuild(body);
+                break;
+            case TYPE.TUNNELBUILDREPLY:
+                message = new TunnelBuildReplyMessage(body);
+                break;
+            case TYPE.TUNNELDATA:
+                message = new TunnelDataMessage(body);
+                break;
+            default:
+                throw new InvalidObjectException("Bad type: " + type);
+        }
+    }
+
+    /**
+     * Returns 1 byte checksum of binary message from truncated SHA256 hash (as in I2P spec)
+     * @param body bytes of binary message
+     * @return 1 byte checksum
+     */
+    private static byte binaryCheckSum(ByteBuffer body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA256");
+            md.update(body);
+            return md.digest()[0];
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex); //should not hit this case
+        }
+    }
+
+    /**
+     * Get JSON checksum creating it if needed
+     * @return 3 byte checksum
+     */
+    private byte[] getCheckSum() {
+        if (chks == null)
+            chks = createCheckSum();
+        return chks;
+    }
+
     /**
      * Returns 3 byte checksum from trucncated SHA256 hash
      * @return 3 byte checksum
@@ -171,6 +280,12 @@ public class I2NPHeader implements JSONSerializable {
      * @return True if payload is valid false otherwise
      */
     public boolean isPayloadValid() {
+        //binary messages are checked while reading
+        if (binaryChecksumValid != null)
+            return binaryChecksumValid;
+        //message created locally is valid
+        if (chks == null)
+            return true;
         //calculate checksum
         byte[] currChks = createCheckSum();
         //compare to checksum on payload
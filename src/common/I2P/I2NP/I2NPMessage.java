@@ -1,5 +1,6 @@
 package common.I2P.I2NP;
 
+import common.transport.BinarySerializable;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 
@@ -11,7 +12,7 @@ import java.io.InvalidObjectException;
  * @apiNote when sending an I2NPMessage it should be wrapped in an I2NPHeader
  * @code I2NPHeader I2NPex = new I2NPHeader(I2NPHeader.TYPE.{TYPE}, 1111, System.currentTimeMillis(), {I2NPMessage});}
  */
-public abstract class I2NPMessage implements JSONSerializable {
+public abstract class I2NPMessage implements JSONSerializable, BinarySerializable {
     /**
      * Create I2NPMessage from JSONObject
      * @param messageJSON Message JSON to deserialize
@@ -1,5 +1,7 @@
 package common.I2P.I2NP;
 
+import common.transport.BinarySerializable;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONArray;
@@ -10,10 +12,15 @@ import org.bouncycastle.util.encoders.Base64;
 import javax.crypto.*;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class TunnelBuild extends I2NPMessage implements JSONSerializable {
     /**
@@ -25,6 +32,10 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
         deserialize(json);
     }
 
+    TunnelBuild(ByteBuffer buf) throws InvalidObjectException {
+        readBinary(buf);
+    }
+
     public TunnelBuild(ArrayList<Record> records) {
         this.records = new ArrayList<>();
 
@@ -57,6 +68,44 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
         return jsonArray;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeByte(records.size());
+        for (Record record : records) {
+            record.writeBinary(out);
+        }
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        int numRecords = Byte.toUnsignedInt(buf.get());
+        records = new ArrayList<>(numRecords);
+        for (int i = 0; i < numRecords; i++) {
+            records.add(new Record(buf));
+        }
+    }
+
+    /**
+     * Read length prefixed AES key
+     * @param buf buffer to read from
+     * @return AES SecretKey or null if a null key was written
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    static SecretKey readAESKey(ByteBuffer buf) throws InvalidObjectException {
+        byte[] keyBytes = I2NPCodec.readBytes(buf);
+        return keyBytes == null ? null : new SecretKeySpec(keyBytes, "AES");
+    }
+
+    /**
+     * Write length prefixed AES key
+     * @param out stream to write to
+     * @param key AES key to write, may be null
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeAESKey(DataOutputStream out, SecretKey key) throws IOException {
+        I2NPCodec.writeBytes(out, key == null ? null : key.getEncoded());
+    }
+
     public void decryptAES(SecretKey secretKey, byte[] iv) {
         for (Record record : records) {
             record.layeredDecrypt(secretKey, iv);
@@ -71,7 +120,11 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
         return records;
     }
 
-    public static class Record implements JSONSerializable {
+    public static class Record implements JSONSerializable, BinarySerializable {
+        /**
+         * Length of the peer hint once its layers are removed, the same truncated hash carried in toPeer
+         */
+        public static final int PEER_HINT_LENGTH = 16;
         /**
          * First 16 butes of the SHA256 hash of the peer's RouterIdentity
          */
@@ -154,6 +207,14 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
         private byte[] encToPeer;
         private byte[] encReplyKey;
 
+        /**
+         * First 16 bytes of the SHA256 hash of the peer's RouterIdentity, not ElGamal encrypted but layered with the
+         * rest of the record so a peer only sees the hint of its own record once earlier hops peeled their layers.
+         * Lets peers find their record without decrypting every record. Null for records built without a hint and
+         * once the record is decrypted
+         */
+        private byte[] peerHint;
+
         /**
          * Construct a record from a json
          * 
@@ -164,6 +225,16 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
             deserialize(jsonObject);
         }
 
+        /**
+         * Construct a record from binary
+         *
+         * @param buf buffer to read record from
+         * @throws InvalidObjectException throws if bytes are invalid
+         */
+        public Record(ByteBuffer buf) throws InvalidObjectException {
+            readFields(buf);
+        }
+
         /**
          * Constructs a new {@code Record} instance by copying the fields from the
          * given encrypted record.
@@ -175,7 +246,9 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
             this.encToPeer = encRecord.encToPeer;
             this.encReplyKey = encRecord.encReplyKey;
             this.replyIv = encRecord.replyIv;
+            this.layerIv = encRecord.layerIv;
             this.encData = encRecord.encData;
+            this.peerHint = encRecord.peerHint;
         }
 
         /**
@@ -256,6 +329,8 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
 
                 // byte[] encryptedReplyIv = elgamalCipher.doFinal(this.replyIv);
 
+                this.peerHint = Arrays.copyOf(this.toPeer, PEER_HINT_LENGTH); // layered with the record, not ElGamal
+
                 this.toPeer = null; // Clear the toPeer field after encryption just in case
                 this.replyKey = null; // Clear the replyKey field after encryption just in case
 
@@ -373,7 +448,8 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
                     this.hopInfo.add(new TunnelHopInfo(hopInfoArray.getObject(i)));
                 }
 
-                // Clear the encrypted fields after decryption
+                // Clear the encrypted fields after decryption, hint is not needed once we found our record
+                this.peerHint = null;
                 this.encToPeer = null;
                 this.encReplyKey = null;
                 this.encData = null; // Clear the encData field after decryption just in case
@@ -418,6 +494,49 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
                 enc3.init(Cipher.ENCRYPT_MODE, key, gcmSpec3);
                 encData = enc3.doFinal(encData);
 
+                // Encrypt peerHint so only the hop this layer is peeled for sees it
+                if (peerHint != null) {
+                    Cipher enc4 = Cipher.getInstance("AES/GCM/NoPadding");
+                    enc4.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                    peerHint = enc4.doFinal(peerHint);
+                }
+
+            } catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException
+                    | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
+                throw new RuntimeException("Layered encryption failed", e);
+            }
+        }
+
+        /**
+         * Encrypts the record under several layers in one pass, same result as calling
+         * {@link #layeredEncrypt(SecretKey, byte[])} with each key and IV in order but
+         * each field keeps one cipher instance for every layer.
+         *
+         * @param keys AES keys in the order layers are applied
+         * @param ivs  IVs matching each key
+         */
+        public void layeredEncrypt(List<SecretKey> keys, List<byte[]> ivs) {
+            if (keys.isEmpty())
+                return;
+            try {
+                // GCM refuses reusing a key and IV on one cipher so each field gets its own
+                Cipher toPeerCipher = Cipher.getInstance("AES/GCM/NoPadding");
+                Cipher replyKeyCipher = Cipher.getInstance("AES/GCM/NoPadding");
+                Cipher dataCipher = Cipher.getInstance("AES/GCM/NoPadding");
+                Cipher hintCipher = peerHint != null ? Cipher.getInstance("AES/GCM/NoPadding") : null;
+                for (int i = 0; i < keys.size(); i++) {
+                    GCMParameterSpec gcmSpec = new GCMParameterSpec(128, ivs.get(i));
+                    toPeerCipher.init(Cipher.ENCRYPT_MODE, keys.get(i), gcmSpec);
+                    encToPeer = toPeerCipher.doFinal(encToPeer);
+                    replyKeyCipher.init(Cipher.ENCRYPT_MODE, keys.get(i), gcmSpec);
+                    encReplyKey = replyKeyCipher.doFinal(encReplyKey);
+                    dataCipher.init(Cipher.ENCRYPT_MODE, keys.get(i), gcmSpec);
+                    encData = dataCipher.doFinal(encData);
+                    if (hintCipher != null) {
+                        hintCipher.init(Cipher.ENCRYPT_MODE, keys.get(i), gcmSpec);
+                        peerHint = hintCipher.doFinal(peerHint);
+                    }
+                }
             } catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException
                     | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
                 throw new RuntimeException("Layered encryption failed", e);
@@ -454,6 +573,13 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
                 dec3.init(Cipher.DECRYPT_MODE, key, gcmSpec3);
                 encData = dec3.doFinal(encData);
 
+                // Decrypt peerHint, in cleartext once the last layer before its hop is peeled
+                if (peerHint != null) {
+                    Cipher dec4 = Cipher.getInstance("AES/GCM/NoPadding");
+                    dec4.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+                    peerHint = dec4.doFinal(peerHint);
+                }
+
             } catch (InvalidAlgorithmParameterException | NoSuchPaddingException | IllegalBlockSizeException
                     | NoSuchAlgorithmException | BadPaddingException | InvalidKeyException e) {
                 throw new RuntimeException("Layered decryption failed", e);
@@ -476,6 +602,9 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
                 this.replyKey = new SecretKeySpec(Base64.decode(json.getString("replyKey")), "AES");
             }
 
+            if (json.getString("peerHint") != null)
+                this.peerHint = Base64.decode(json.getString("peerHint"));
+
             this.replyIv = Base64.decode(json.getString("replyIV"));
             this.layerIv = Base64.decode(json.getString("layerIV"));
 
@@ -506,6 +635,112 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
             }
         }
 
+        /**
+         * Flag set when toPeer and replyKey are encrypted
+         */
+        private static final int ENC_HEADER_FLAG = 0x1;
+        /**
+         * Flag set when the rest of the record is encrypted in encData
+         */
+        private static final int ENC_DATA_FLAG = 0x2;
+        /**
+         * Flag set when the record carries a cleartext peer hint
+         */
+        private static final int PEER_HINT_FLAG = 0x4;
+
+        @Override
+        public void writeBinary(DataOutputStream out) throws IOException {
+            int flags = (encToPeer != null ? ENC_HEADER_FLAG : 0) | (encData != null ? ENC_DATA_FLAG : 0)
+                    | (peerHint != null ? PEER_HINT_FLAG : 0);
+            out.writeByte(flags);
+
+            if (peerHint != null)
+                I2NPCodec.writeBytes(out, peerHint);
+
+            if (encToPeer != null) {
+                I2NPCodec.writeBytes(out, encToPeer);
+                I2NPCodec.writeBytes(out, encReplyKey);
+            } else {
+                I2NPCodec.writeBytes(out, toPeer);
+                writeAESKey(out, replyKey);
+            }
+
+            I2NPCodec.writeBytes(out, replyIv);
+            I2NPCodec.writeBytes(out, layerIv);
+
+            if (encData != null) {
+                I2NPCodec.writeBytes(out, encData);
+                return;
+            }
+            out.writeInt(receiveTunnel);
+            I2NPCodec.writeBytes(out, ourIdent);
+            out.writeInt(nextTunnel);
+            I2NPCodec.writeBytes(out, nextIdent);
+            writeAESKey(out, layerKey);
+            writeAESKey(out, ivKey);
+            out.writeLong(requestTime);
+            out.writeInt(sendMsgID);
+            out.writeByte(type.ordinal());
+            out.writeBoolean(replyFlag);
+
+            if (hopInfo == null) {
+                out.writeByte(0);
+                return;
+            }
+            out.writeByte(hopInfo.size());
+            for (TunnelHopInfo hop : hopInfo) {
+                hop.writeBinary(out);
+            }
+        }
+
+        @Override
+        public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+            readFields(buf);
+        }
+
+        private void readFields(ByteBuffer buf) throws InvalidObjectException {
+            int flags = buf.get();
+
+            if ((flags & PEER_HINT_FLAG) != 0)
+                this.peerHint = I2NPCodec.readBytes(buf);
+
+            if ((flags & ENC_HEADER_FLAG) != 0) {
+                this.encToPeer = I2NPCodec.readBytes(buf);
+                this.encReplyKey = I2NPCodec.readBytes(buf);
+            } else {
+                this.toPeer = I2NPCodec.readBytes(buf);
+                this.replyKey = readAESKey(buf);
+            }
+
+            this.replyIv = I2NPCodec.readBytes(buf);
+            this.layerIv = I2NPCodec.readBytes(buf);
+
+            if ((flags & ENC_DATA_FLAG) != 0) {
+                this.encData = I2NPCodec.readBytes(buf);
+                return;
+            }
+            this.receiveTunnel = buf.getInt();
+            this.ourIdent = I2NPCodec.readBytes(buf);
+            this.nextTunnel = buf.getInt();
+            this.nextIdent = I2NPCodec.readBytes(buf);
+            this.layerKey = readAESKey(buf);
+            this.ivKey = readAESKey(buf);
+            this.requestTime = buf.getLong();
+            this.sendMsgID = buf.getInt();
+
+            int typeOrdinal = buf.get();
+            if (typeOrdinal < 0 || typeOrdinal >= TYPE.values().length)
+                throw new InvalidObjectException("Bad record type " + typeOrdinal);
+            this.type = TYPE.values()[typeOrdinal];
+            this.replyFlag = buf.get() != 0;
+
+            int numHops = Byte.toUnsignedInt(buf.get());
+            this.hopInfo = new ArrayList<>(numHops);
+            for (int i = 0; i < numHops; i++) {
+                this.hopInfo.add(new TunnelHopInfo(buf));
+            }
+        }
+
         private void setEncData(byte[] encData) {
             this.encData = encData;
         }
@@ -521,6 +756,9 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
                 json.put("replyKey", Base64.toBase64String(replyKey.getEncoded()));
             }
 
+            if (peerHint != null)
+                json.put("peerHint", Base64.toBase64String(peerHint));
+
             json.put("replyIV", Base64.toBase64String(replyIv));
             json.put("layerIV", Base64.toBase64String(layerIv));
 
@@ -554,6 +792,27 @@ public class TunnelBuild extends I2NPMessage implements JSONSerializable {
             return encData;
         }
 
+        public byte[] getPeerHint() {
+            return peerHint;
+        }
+
+        /**
+         * Check peer hint against a router's hash before doing any decryption, a hint still under AES layers is
+         * longer than {@link #PEER_HINT_LENGTH} and belongs to a later hop
+         *
+         * @param routerHash 32 byte SHA256 hash of router's RouterIdentity
+         * @return false if record was already decrypted or hint shows record is for another peer, true if it matches
+         *         or record has no hint and must be trial decrypted
+         */
+        public boolean mayBeFor(byte[] routerHash) {
+            if (encToPeer == null)
+                return false;
+            if (peerHint == null)
+                return true;
+            return peerHint.length == PEER_HINT_LENGTH && routerHash.length >= PEER_HINT_LENGTH
+                    && Arrays.equals(peerHint, 0, PEER_HINT_LENGTH, routerHash, 0, PEER_HINT_LENGTH);
+        }
+
         public byte[] getToPeer() {
             return toPeer;
         }
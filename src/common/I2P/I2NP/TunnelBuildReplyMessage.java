@@ -5,7 +5,10 @@ import common.I2P.tunnels.TunnelObject;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 
 public class TunnelBuildReplyMessage extends I2NPMessage {
 
@@ -43,6 +46,10 @@ public class TunnelBuildReplyMessage extends I2NPMessage {
         deserialize(messageObj);
     }
 
+    public TunnelBuildReplyMessage(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
     @Override
     public void deserialize(JSONType arg0) throws InvalidObjectException {
         if (!(arg0 instanceof JSONObject)) {
@@ -67,6 +74,24 @@ public class TunnelBuildReplyMessage extends I2NPMessage {
         return jsonObject;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(nextTunnel);
+        out.writeInt(tunnelID);
+        records.writeBinary(out);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        this.nextTunnel = buf.getInt();
+        this.tunnelID = buf.getInt();
+        this.records = new TunnelBuild(buf);
+    }
+
     public int getNextTunnel() {
         return nextTunnel;
     }
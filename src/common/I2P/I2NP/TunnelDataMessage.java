@@ -1,10 +1,14 @@
 package common.I2P.I2NP;
 
+import common.transport.I2NPCodec;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 
 public class TunnelDataMessage extends I2NPMessage {
     private int tunnelID;
@@ -29,6 +33,10 @@ public class TunnelDataMessage extends I2NPMessage {
         deserialize(messageObj);
     }
 
+    public TunnelDataMessage(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
     public int getTunnelID() {
         return tunnelID;
     }
@@ -77,6 +85,38 @@ public class TunnelDataMessage extends I2NPMessage {
         return jsonObject;
     }
 
+    /**
+     * Write message in binary, a JSON payload is written as an opaque blob
+     */
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeInt(tunnelID);
+        if (encPayload != null) {
+            out.writeByte(1);
+            I2NPCodec.writeBytes(out, encPayload);
+        } else {
+            out.writeByte(0);
+            I2NPCodec.writeJSON(out, payload);
+        }
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        this.tunnelID = buf.getInt();
+        if (buf.get() == 1) {
+            this.encPayload = I2NPCodec.readBytes(buf);
+        } else {
+            this.payload = I2NPCodec.readJSON(buf);
+            if (this.payload == null)
+                throw new InvalidObjectException("Must contain payload or encPayload");
+            this.payload = castDoublesToIntegers(this.payload); // fix any Double values to Integer
+        }
+    }
+
     private JSONObject castDoublesToIntegers(JSONObject jsonObject) {
         for (String key : jsonObject.keySet()) {
             Object value = jsonObject.get(key);
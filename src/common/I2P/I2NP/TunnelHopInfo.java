@@ -1,5 +1,7 @@
 package common.I2P.I2NP;
 
+import common.transport.BinarySerializable;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
@@ -7,9 +9,12 @@ import org.bouncycastle.util.encoders.Base64;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 
-public class TunnelHopInfo implements JSONSerializable {
+public class TunnelHopInfo implements JSONSerializable, BinarySerializable {
     byte[] routerHash; // Router identity hash 16 byte for toPeer
     // PublicKey publicKey; // ElGamal key (used during build) do we need this? <-yes for later encryption? along hops? -Seth
     SecretKey layerKey; // AES key for that hop
@@ -42,6 +47,10 @@ public class TunnelHopInfo implements JSONSerializable {
         }
     }
 
+    public TunnelHopInfo(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
     public byte[] getRouterHash() {
         return routerHash;
     }
@@ -92,4 +101,25 @@ public class TunnelHopInfo implements JSONSerializable {
         return jsonObject;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        I2NPCodec.writeBytes(out, routerHash);
+        I2NPCodec.writeBytes(out, layerKey.getEncoded());
+        I2NPCodec.writeBytes(out, layerIv);
+        I2NPCodec.writeBytes(out, ivKey.getEncoded());
+        out.writeInt(sendTunnelId);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        this.routerHash = I2NPCodec.readBytes(buf);
+        this.layerKey = TunnelBuild.readAESKey(buf);
+        this.layerIv = I2NPCodec.readBytes(buf);
+        this.ivKey = TunnelBuild.readAESKey(buf);
+        this.sendTunnelId = buf.getInt();
+    }
 }
@@ -1,10 +1,14 @@
 package common.I2P.IDs;
 
+import common.transport.BinarySerializable;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -12,18 +16,22 @@ import java.security.PublicKey;
 /**
  * Class to uniquely identify destinations
  */
-public class Destination implements JSONSerializable {
+public class Destination implements JSONSerializable, BinarySerializable {
     /**
      * keys used - I2P spec uses KeysAndCerts for Destinations
      */
     private KeysAndCerts keys;
+    /**
+     * SHA256 hash of keys, computed once when keys are set
+     */
+    private byte[] hash;
 
     /**
      * Create destination with DSA_SHA1_Public_key
      * @param edSignPublicKey 32-byte Ed25519 public key for EdDSA signatures
      */
     public Destination(PublicKey edSignPublicKey) {
-        keys = new KeysAndCerts(null, edSignPublicKey);
+        setKeys(new KeysAndCerts(null, edSignPublicKey));
     }
 
     /**
@@ -32,7 +40,16 @@ public class Destination implements JSONSerializable {
      * @throws InvalidObjectException throws if JSON is invalid
      */
     public Destination(JSONObject json) throws InvalidObjectException {
-        keys = new KeysAndCerts(json);
+        setKeys(new KeysAndCerts(json));
+    }
+
+    /**
+     * Create Destination from binary(wraps KeysAndCerts)
+     * @param buf buffer to read from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    public Destination(ByteBuffer buf) throws InvalidObjectException {
+        setKeys(new KeysAndCerts(buf));
     }
 
     public PublicKey getSigningPublicKey() {
@@ -40,17 +57,33 @@ public class Destination implements JSONSerializable {
     }
 
     /**
-     * Get SHA256 byte hash of this destination
+     * Get X509 encoding of signing public key, encoded once and shared so it must not be modified
+     * @return Encoded Ed25519 public key
+     */
+    public byte[] getEncodedSigningPublicKey() {
+        return keys.getEncodedSigningPublicKey();
+    }
+
+    /**
+     * Get SHA256 byte hash of this destination, computed once and shared so it must not be modified
      * @return 32-byte SHA256 hash of this Destination
      */
     public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * Set keys of this Destination and compute its hash
+     * @param keys Keys of destination
+     */
+    private void setKeys(KeysAndCerts keys) {
         try {
             //hash payload of message
             MessageDigest md = MessageDigest.getInstance("SHA256");
-            md.update(keys.getSigningPublicKey().getEncoded());
-
-            return md.digest();
+            md.update(keys.getEncodedSigningPublicKey());
 
+            this.hash = md.digest();
+            this.keys = keys;
         }
         catch (NoSuchAlgorithmException ex) {throw new RuntimeException(ex);} //should not hit this case
     }
@@ -61,7 +94,7 @@ public class Destination implements JSONSerializable {
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         if (!(jsonType instanceof JSONObject))
             throw new InvalidObjectException("jsontype must be a JSONObject");
-        keys = new KeysAndCerts((JSONObject) jsonType);
+        setKeys(new KeysAndCerts((JSONObject) jsonType));
     }
 
     /**
@@ -71,4 +104,20 @@ public class Destination implements JSONSerializable {
     public JSONObject toJSONType() {
         return keys.toJSONType();
     }
+
+    /**
+     * Wraps KeysAndCerts writeBinary
+     */
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        keys.writeBinary(out);
+    }
+
+    /**
+     * Wraps KeysAndCerts readBinary
+     */
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        setKeys(new KeysAndCerts(buf));
+    }
 }
@@ -1,18 +1,20 @@
 package common.I2P.IDs;
 
+import common.transport.BinarySerializable;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
-import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.security.PublicKey;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 
-public class KeysAndCerts implements JSONSerializable {
+public class KeysAndCerts implements JSONSerializable, BinarySerializable {
     /**
      * Elgamal 256-byte public key
      */
@@ -21,6 +23,14 @@ public class KeysAndCerts implements JSONSerializable {
      * DSA_SHA1 128-byte key for verification
      */
     private PublicKey signingPublicKey;
+    /**
+     * X509 encoding of {@link #publicKey}, null if there is no public key
+     */
+    private byte[] encodedPublicKey;
+    /**
+     * X509 encoding of {@link #signingPublicKey}
+     */
+    private byte[] encodedSigningPublicKey;
 
     /**
      * Create KeysAndCerts class with a elgamal public key and a signing public key
@@ -33,6 +43,8 @@ public class KeysAndCerts implements JSONSerializable {
     KeysAndCerts(PublicKey publicKey, PublicKey signingPublicKey) {
         this.publicKey = publicKey;
         this.signingPublicKey = signingPublicKey;
+        this.encodedPublicKey = publicKey == null ? null : publicKey.getEncoded();
+        this.encodedSigningPublicKey = signingPublicKey.getEncoded();
     }
 
     /**
@@ -44,6 +56,15 @@ public class KeysAndCerts implements JSONSerializable {
         deserialize(json);
     }
 
+    /**
+     * Create KeysAndCerts class from binary
+     * @param buf buffer to read class from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    KeysAndCerts(ByteBuffer buf) throws InvalidObjectException {
+        readBinary(buf);
+    }
+
     public PublicKey getPublicKey() {
         return publicKey;
     }
@@ -52,6 +73,22 @@ public class KeysAndCerts implements JSONSerializable {
         return signingPublicKey;
     }
 
+    /**
+     * Get X509 encoding of public key, encoded once and shared so it must not be modified
+     * @return Encoded key or null if there is no public key
+     */
+    byte[] getEncodedPublicKey() {
+        return encodedPublicKey;
+    }
+
+    /**
+     * Get X509 encoding of signing public key, encoded once and shared so it must not be modified
+     * @return Encoded key
+     */
+    byte[] getEncodedSigningPublicKey() {
+        return encodedSigningPublicKey;
+    }
+
     @Override
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         if (!(jsonType instanceof JSONObject))
@@ -62,34 +99,60 @@ public class KeysAndCerts implements JSONSerializable {
         if (!keysAndCertsJSON.containsKey("signingPublicKey"))
             throw new InvalidObjectException("Missing key - signingPublicKey");
 
-        byte[] signingKeyBytes = Base64.decode(keysAndCertsJSON.getString("signingPublicKey"));
-        try {
-            signingPublicKey = KeyFactory.getInstance("Ed25519").generatePublic(
-                    new X509EncodedKeySpec(signingKeyBytes));
-        }
-        catch (InvalidKeySpecException e) {throw new InvalidObjectException("Signing Key is not valid");}
-        catch (NoSuchAlgorithmException e) {throw new RuntimeException(e);} //should never hit case
+        encodedSigningPublicKey = Base64.decode(keysAndCertsJSON.getString("signingPublicKey"));
+        signingPublicKey = decodeKey("Ed25519", encodedSigningPublicKey);
 
         //this could be null for destination
         if (keysAndCertsJSON.containsKey("publicKey")) {
-            byte[] publicKeyBytes = Base64.decode(keysAndCertsJSON.getString("publicKey"));
-            try {
-                publicKey = KeyFactory.getInstance("ElGamal").generatePublic(new X509EncodedKeySpec(publicKeyBytes));
-            }
-            catch (InvalidKeySpecException e) {throw new InvalidObjectException("Public Key is not valid");}
-            catch (NoSuchAlgorithmException e) {throw new RuntimeException(e);} //should never hit case
+            encodedPublicKey = Base64.decode(keysAndCertsJSON.getString("publicKey"));
+            publicKey = decodeKey("ElGamal", encodedPublicKey);
+        }
+    }
+
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        I2NPCodec.writeBytes(out, encodedSigningPublicKey);
+        //could be null if used for destination
+        I2NPCodec.writeBytes(out, encodedPublicKey);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        byte[] signingKeyBytes = I2NPCodec.readBytes(buf);
+        if (signingKeyBytes == null)
+            throw new InvalidObjectException("Missing key - signingPublicKey");
+        signingPublicKey = decodeKey("Ed25519", signingKeyBytes);
+        encodedSigningPublicKey = signingKeyBytes;
+
+        //this could be null for destination
+        byte[] publicKeyBytes = I2NPCodec.readBytes(buf);
+        publicKey = publicKeyBytes == null ? null : decodeKey("ElGamal", publicKeyBytes);
+        encodedPublicKey = publicKeyBytes;
+    }
+
+    /**
+     * Decode X509 encoded public key, keys seen before are taken from {@link PublicKeyCache}
+     * @param algorithm Algorithm of key {@code Ed25519 or ElGamal}
+     * @param encoded X509 encoded bytes of key
+     * @return PublicKey decoded
+     * @throws InvalidObjectException throws if key is not valid
+     */
+    private static PublicKey decodeKey(String algorithm, byte[] encoded) throws InvalidObjectException {
+        try {
+            return PublicKeyCache.decode(algorithm, encoded);
         }
+        catch (InvalidKeySpecException e) {throw new InvalidObjectException(algorithm + " Key is not valid");}
     }
 
     @Override
     public JSONObject toJSONType() {
         JSONObject json = new JSONObject();
 
-        json.put("signingPublicKey", Base64.toBase64String(signingPublicKey.getEncoded()));
+        json.put("signingPublicKey", Base64.toBase64String(encodedSigningPublicKey));
 
         //could be null if used for destination
         if (publicKey != null) {
-            json.put("publicKey", Base64.toBase64String(publicKey.getEncoded()));
+            json.put("publicKey", Base64.toBase64String(encodedPublicKey));
         }
 
         return json;
@@ -0,0 +1,57 @@
+package common.I2P.IDs;
+
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns decoded public keys so keys of peers we hear from repeatedly are only parsed once
+ *
+ * <p>RouterInfos and LeaseSets of the same peers arrive over and over from lookups and flood-fill, decoding their
+ * X509 keys is done through {@link KeyFactory} which parses ASN.1 and builds a new key object each time. Keys are
+ * immutable so the same instance is shared by every record carrying the same encoded key.</p>
+ */
+public final class PublicKeyCache {
+    /**
+     * Max number of keys cached for each algorithm
+     */
+    private static final int MAX_CACHED_KEYS = 4096;
+    /**
+     * Decoded keys keyed under algorithm then encoded bytes of key
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<ByteBuffer, PublicKey>> KEYS =
+            new ConcurrentHashMap<>();
+
+    private PublicKeyCache() {}
+
+    /**
+     * Decode X509 encoded public key, returning the cached key if these bytes were decoded before
+     * @param algorithm Algorithm of key {@code Ed25519 or ElGamal}
+     * @param encoded X509 encoded bytes of key, must not be modified after calling
+     * @return Decoded public key
+     * @throws InvalidKeySpecException if key is not valid
+     */
+    public static PublicKey decode(String algorithm, byte[] encoded) throws InvalidKeySpecException {
+        ConcurrentHashMap<ByteBuffer, PublicKey> keys = KEYS.computeIfAbsent(algorithm,
+                k -> new ConcurrentHashMap<>());
+        ByteBuffer cacheKey = ByteBuffer.wrap(encoded);
+        PublicKey key = keys.get(cacheKey);
+        if (key != null)
+            return key;
+
+        try {
+            key = KeyFactory.getInstance(algorithm).generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); //should never hit case
+        }
+        //bound memory, cache is rebuilt from keys still in use
+        if (keys.size() >= MAX_CACHED_KEYS)
+            keys.clear();
+        keys.put(cacheKey, key);
+        return key;
+    }
+}
@@ -1,10 +1,14 @@
 package common.I2P.IDs;
 
+import common.transport.BinarySerializable;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -12,11 +16,15 @@ import java.security.PublicKey;
 /**
  * Class to uniquely identify router
  */
-public class RouterID implements JSONSerializable {
+public class RouterID implements JSONSerializable, BinarySerializable {
     /**
      * keys used - I2P spec uses KeysAndCerts for Destinations
      */
     private KeysAndCerts keys;
+    /**
+     * SHA256 hash of keys, computed once when keys are set
+     */
+    private byte[] hash;
 
     /**
      * Create new RouterID with proper keys
@@ -24,7 +32,7 @@ public class RouterID implements JSONSerializable {
      * @param edSignPublicKey 32-byte Ed25519 public key for EdDSA signatures
      */
     public RouterID(PublicKey elgamalPublicKey, PublicKey edSignPublicKey) {
-        keys = new KeysAndCerts(elgamalPublicKey, edSignPublicKey);
+        setKeys(new KeysAndCerts(elgamalPublicKey, edSignPublicKey));
     }
 
     /**
@@ -33,7 +41,16 @@ public class RouterID implements JSONSerializable {
      * @throws throws if json is invalid
      */
     public RouterID(JSONObject json) throws InvalidObjectException{
-        keys = new KeysAndCerts(json);
+        setKeys(requireElgamalKey(new KeysAndCerts(json)));
+    }
+
+    /**
+     * Create RouterID from binary(wraps KeysAndCerts)
+     * @param buf buffer to read from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    public RouterID(ByteBuffer buf) throws InvalidObjectException {
+        setKeys(requireElgamalKey(new KeysAndCerts(buf)));
     }
 
     public PublicKey getElgamalPublicKey() {
@@ -45,22 +62,59 @@ public class RouterID implements JSONSerializable {
     }
 
     /**
-     * Gets SHA-256 hash of this RouterID
+     * Get X509 encoding of elgamal public key, encoded once and shared so it must not be modified
+     * @return Encoded elgamal public key
+     */
+    public byte[] getEncodedElgamalPublicKey() {
+        return keys.getEncodedPublicKey();
+    }
+
+    /**
+     * Get X509 encoding of signing public key, encoded once and shared so it must not be modified
+     * @return Encoded Ed25519 public key
+     */
+    public byte[] getEncodedSigningPublicKey() {
+        return keys.getEncodedSigningPublicKey();
+    }
+
+    /**
+     * Gets SHA-256 hash of this RouterID, computed once and shared so it must not be modified
      * @return 32 byte SHA256 hash of this RouterID
      */
     public byte[] getHash() {
+        return hash;
+    }
+
+    /**
+     * Set keys of this RouterID and compute its hash
+     * @param keys Keys of router
+     */
+    private void setKeys(KeysAndCerts keys) {
         try {
             //hash payload of message
             MessageDigest md = MessageDigest.getInstance("SHA256");
-            md.update(keys.getPublicKey().getEncoded());
-            md.update(keys.getSigningPublicKey().getEncoded());
-
-            return md.digest();
+            md.update(keys.getEncodedPublicKey());
+            md.update(keys.getEncodedSigningPublicKey());
 
+            this.hash = md.digest();
+            this.keys = keys;
         }
         catch (NoSuchAlgorithmException ex) {throw new RuntimeException(ex);} //should not hit this case
     }
 
+    /**
+     * Check keys read from a peer have an elgamal public key, it is optional in KeysAndCerts for destinations but
+     * every router needs one and it is part of the hash
+     * @param keys Keys read from a peer
+     * @return keys
+     * @throws InvalidObjectException throws if elgamal public key is missing
+     */
+    private static KeysAndCerts requireElgamalKey(KeysAndCerts keys) throws InvalidObjectException {
+        if (keys.getEncodedPublicKey() == null)
+            throw new InvalidObjectException("Missing key - publicKey");
+        return keys;
+    }
+
     /**
      * wraps KeysAndCerts deserialize
      */
@@ -68,7 +122,7 @@ public class RouterID implements JSONSerializable {
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         if (!(jsonType instanceof JSONObject))
             throw new InvalidObjectException("jsontype must be a JSONObject");
-        keys = new KeysAndCerts((JSONObject) jsonType);
+        setKeys(requireElgamalKey(new KeysAndCerts((JSONObject) jsonType)));
     }
 
     /**
@@ -78,4 +132,20 @@ public class RouterID implements JSONSerializable {
     public JSONObject toJSONType() {
         return keys.toJSONType();
     }
+
+    /**
+     * Wraps KeysAndCerts writeBinary
+     */
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        keys.writeBinary(out);
+    }
+
+    /**
+     * Wraps KeysAndCerts readBinary
+     */
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        setKeys(requireElgamalKey(new KeysAndCerts(buf)));
+    }
 }
@@ -0,0 +1,378 @@
+package common.I2P.NetworkDB;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Bounded Kademlia k-bucket of records
+ *
+ * <p>A bucket holds at most {@code capacity} records, each with the time it was last seen. When the bucket is full a
+ * new record only replaces the least recently seen record if that record's peer has stopped responding, otherwise the
+ * new record waits in a bounded replacement cache. When a peer is evicted for not responding the most recently seen
+ * replacement is promoted into the bucket.</p>
+ *
+ * <p>LeaseSets are not routed through so they are kept apart in their own bounded store, they never take a slot in the
+ * bucket or replacement cache from a RouterInfo. When the store is full the LeaseSet stored longest ago is dropped.</p>
+ *
+ * @implNote reads are lock-free, writes lock the bucket so buckets are updated in parallel
+ */
+class KBucket {
+    /**
+     * Result of putting a record in a bucket
+     */
+    enum Placement {
+        /**
+         * Record was added to bucket or updated an existing record
+         */
+        STORED,
+        /**
+         * Record was added to bucket by evicting an unresponsive peer
+         */
+        EVICTED_UNRESPONSIVE,
+        /**
+         * Bucket is full, record was put in the replacement cache
+         */
+        REPLACEMENT_CACHE,
+        /**
+         * A newer copy of the record is already stored, record was ignored
+         */
+        STALE
+    }
+
+    /**
+     * Number of failed requests before a peer is considered unresponsive
+     */
+    static final int MAX_FAILURES = 3;
+
+    /**
+     * Max number of records in bucket, in replacement cache and in LeaseSet store
+     */
+    private final int capacity;
+    /**
+     * Records in bucket under their routing key
+     */
+    private final ConcurrentHashMap<RoutingKey, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Records waiting for space in the bucket
+     */
+    private final ConcurrentHashMap<RoutingKey, Entry> replacements = new ConcurrentHashMap<>();
+    /**
+     * LeaseSets, kept apart from routers so they do not crowd them out of the bucket
+     */
+    private final ConcurrentHashMap<RoutingKey, Entry> leaseSets = new ConcurrentHashMap<>();
+
+    /**
+     * Create an empty bucket
+     * @param capacity Max number of records in bucket
+     */
+    KBucket(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get record in bucket or replacement cache
+     * @param key Routing key of record
+     * @return Record or null if not found
+     */
+    Record get(RoutingKey key) {
+        Entry entry = getEntry(key);
+        return entry == null ? null : entry.record;
+    }
+
+    /**
+     * Get entry in bucket or replacement cache
+     * @param key Routing key of record
+     * @return Entry or null if not found
+     */
+    Entry getEntry(RoutingKey key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            entry = replacements.get(key); //still a valid record even if we do not route through it
+        if (entry == null)
+            entry = leaseSets.get(key);
+        return entry;
+    }
+
+    /**
+     * Get records in bucket and LeaseSets, records in the replacement cache are not included
+     * @return Records in bucket
+     */
+    Collection<Record> records() {
+        ArrayList<Record> records = new ArrayList<>(entries.size() + leaseSets.size());
+        for (Entry entry : entries.values())
+            records.add(entry.record);
+        for (Entry entry : leaseSets.values())
+            records.add(entry.record);
+        return records;
+    }
+
+    /**
+     * Put record in bucket, updating it if already present and not published later than {@code record}
+     * @param key Routing key of record
+     * @param record Record to put
+     * @param now Current time in milliseconds
+     * @return Where record was placed
+     */
+    synchronized Placement put(RoutingKey key, Record record, long now) {
+        if (record.getRecordType() == Record.RecordType.LEASESET)
+            return putLeaseSet(key, record, now);
+
+        Entry existing = entries.get(key);
+        if (existing != null) {
+            if (record.getPublished() < existing.record.getPublished())
+                return Placement.STALE;
+            //a newer copy of the record does not mean we heard from the peer so keep its liveness
+            Entry updated = new Entry(record, existing.lastSeen, now);
+            updated.failures = existing.failures;
+            entries.put(key, updated);
+            return Placement.STORED;
+        }
+        Entry waiting = replacements.get(key);
+        if (waiting != null && record.getPublished() < waiting.record.getPublished())
+            return Placement.STALE;
+
+        if (entries.size() < capacity) {
+            entries.put(key, new Entry(record, now, now));
+            replacements.remove(key);
+            return Placement.STORED;
+        }
+
+        //bucket is full, only make room if least recently seen peer stopped responding
+        Map.Entry<RoutingKey, Entry> leastRecent = leastRecentlySeen(entries);
+        if (leastRecent.getValue().failures >= MAX_FAILURES) {
+            entries.remove(leastRecent.getKey());
+            entries.put(key, new Entry(record, now, now));
+            replacements.remove(key);
+            return Placement.EVICTED_UNRESPONSIVE;
+        }
+
+        replacements.put(key, new Entry(record, now, now));
+        if (replacements.size() > capacity)
+            replacements.remove(leastRecentlySeen(replacements).getKey());
+        return Placement.REPLACEMENT_CACHE;
+    }
+
+    /**
+     * Put LeaseSet in the LeaseSet store, dropping the LeaseSet stored longest ago if it is full
+     */
+    private Placement putLeaseSet(RoutingKey key, Record record, long now) {
+        Entry existing = leaseSets.get(key);
+        if (existing != null && record.getPublished() < existing.record.getPublished())
+            return Placement.STALE;
+
+        leaseSets.put(key, new Entry(record, now, now));
+        if (leaseSets.size() > capacity)
+            leaseSets.remove(leastRecentlyStored(leaseSets));
+        return Placement.STORED;
+    }
+
+    /**
+     * Add an entry moved from another bucket keeping its liveness, used when keys rotate. If the record is already in
+     * this bucket it was stored while keys were rotating and is newer so it is kept
+     * @param key Routing key of record in this bucket
+     * @param entry Entry from old bucket
+     * @param replacement True if entry was in the old bucket's replacement cache
+     */
+    synchronized void adopt(RoutingKey key, Entry entry, boolean replacement) {
+        if (entry.record.getRecordType() == Record.RecordType.LEASESET) {
+            if (leaseSets.putIfAbsent(key, entry.copy()) == null && leaseSets.size() > capacity)
+                leaseSets.remove(leastRecentlyStored(leaseSets));
+            return;
+        }
+        if (entries.containsKey(key) || replacements.containsKey(key))
+            return;
+        if (!replacement && entries.size() < capacity) {
+            entries.put(key, entry.copy());
+            return;
+        }
+        replacements.put(key, entry.copy());
+        if (replacements.size() > capacity)
+            replacements.remove(leastRecentlySeen(replacements).getKey());
+    }
+
+    /**
+     * Mark peer as seen, resets failures
+     * @param key Routing key of peer
+     * @param now Current time in milliseconds
+     */
+    void markSeen(RoutingKey key, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            entry = replacements.get(key);
+        if (entry == null)
+            return;
+        entry.lastSeen = now;
+        entry.failures = 0;
+    }
+
+    /**
+     * Record that a peer did not respond, after {@link #MAX_FAILURES} the peer is replaced by the most recently seen
+     * replacement if there is one
+     * @param key Routing key of peer
+     * @return true if peer was evicted
+     */
+    synchronized boolean reportUnresponsive(RoutingKey key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return false;
+        entry.failures++;
+        if (entry.failures < MAX_FAILURES || replacements.isEmpty())
+            return false;
+
+        //promote most recently seen replacement
+        RoutingKey promote = mostRecentlySeen(replacements);
+        entries.remove(key);
+        entries.put(promote, replacements.remove(promote));
+        return true;
+    }
+
+    /**
+     * Remove entries in bucket and replacement cache matching a filter, replacements are promoted into the space left
+     * @param expired Filter matching entries to remove
+     * @return Number of entries removed
+     */
+    synchronized int removeIf(Predicate<Entry> expired) {
+        int removed = 0;
+        for (Map.Entry<RoutingKey, Entry> entry : entries.entrySet()) {
+            if (expired.test(entry.getValue()) && entries.remove(entry.getKey(), entry.getValue()))
+                removed++;
+        }
+        for (Map.Entry<RoutingKey, Entry> entry : replacements.entrySet()) {
+            if (expired.test(entry.getValue()) && replacements.remove(entry.getKey(), entry.getValue()))
+                removed++;
+        }
+        for (Map.Entry<RoutingKey, Entry> entry : leaseSets.entrySet()) {
+            if (expired.test(entry.getValue()) && leaseSets.remove(entry.getKey(), entry.getValue()))
+                removed++;
+        }
+
+        //refill bucket with most recently seen replacements
+        while (entries.size() < capacity && !replacements.isEmpty()) {
+            RoutingKey promote = mostRecentlySeen(replacements);
+            entries.put(promote, replacements.remove(promote));
+        }
+        return removed;
+    }
+
+    /**
+     * Get entries in this bucket
+     * @return Entries of records in bucket
+     */
+    Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * Get entries in replacement cache
+     * @return Entries of records in replacement cache
+     */
+    Collection<Entry> replacementEntries() {
+        return replacements.values();
+    }
+
+    /**
+     * Get entries in LeaseSet store
+     * @return Entries of LeaseSets
+     */
+    Collection<Entry> leaseSetEntries() {
+        return leaseSets.values();
+    }
+
+    /**
+     * @return Number of records in bucket
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of records in replacement cache
+     */
+    int replacementSize() {
+        return replacements.size();
+    }
+
+    /**
+     * @return Number of LeaseSets in LeaseSet store
+     */
+    int leaseSetSize() {
+        return leaseSets.size();
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty() && replacements.isEmpty() && leaseSets.isEmpty();
+    }
+
+    private static Map.Entry<RoutingKey, Entry> leastRecentlySeen(ConcurrentHashMap<RoutingKey, Entry> map) {
+        Map.Entry<RoutingKey, Entry> oldest = null;
+        for (Map.Entry<RoutingKey, Entry> entry : map.entrySet()) {
+            if (oldest == null || entry.getValue().lastSeen < oldest.getValue().lastSeen)
+                oldest = entry;
+        }
+        return oldest;
+    }
+
+    private static RoutingKey leastRecentlyStored(ConcurrentHashMap<RoutingKey, Entry> map) {
+        RoutingKey oldest = null;
+        long oldestStored = Long.MAX_VALUE;
+        for (Map.Entry<RoutingKey, Entry> entry : map.entrySet()) {
+            if (entry.getValue().storedAt < oldestStored) {
+                oldestStored = entry.getValue().storedAt;
+                oldest = entry.getKey();
+            }
+        }
+        return oldest;
+    }
+
+    private static RoutingKey mostRecentlySeen(ConcurrentHashMap<RoutingKey, Entry> map) {
+        RoutingKey newest = null;
+        long newestSeen = Long.MIN_VALUE;
+        for (Map.Entry<RoutingKey, Entry> entry : map.entrySet()) {
+            if (entry.getValue().lastSeen > newestSeen) {
+                newestSeen = entry.getValue().lastSeen;
+                newest = entry.getKey();
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Record with liveness of its peer
+     */
+    static final class Entry {
+        private final Record record;
+        /**
+         * Time record was stored in milliseconds
+         */
+        private final long storedAt;
+        private volatile long lastSeen;
+        private volatile int failures;
+
+        private Entry(Record record, long lastSeen, long storedAt) {
+            this.record = record;
+            this.lastSeen = lastSeen;
+            this.storedAt = storedAt;
+        }
+
+        Record getRecord() {
+            return record;
+        }
+
+        long getStoredAt() {
+            return storedAt;
+        }
+
+        long getLastSeen() {
+            return lastSeen;
+        }
+
+        private Entry copy() {
+            Entry copy = new Entry(record, lastSeen, storedAt);
+            copy.failures = failures;
+            return copy;
+        }
+    }
+}
@@ -1,14 +1,24 @@
 package common.I2P.NetworkDB;
 
 import common.I2P.IDs.RouterID;
+import common.transport.BinarySerializable;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+
+public class Lease implements JSONSerializable, BinarySerializable {
+    /**
+     * Milliseconds a lease is valid for, same as lifetime of a tunnel
+     */
+    public static final long LIFETIME_MILLIS = 10 * 60 * 1000L;
 
-public class Lease implements JSONSerializable {
     /**
      * Hash of RouterID of the tunnel Gateway
      */
@@ -20,20 +30,29 @@ public class Lease implements JSONSerializable {
     private int tunnelID;
 
     /**
-     * Epoch time of expiration
+     * Epoch time of expiration, 0 if unknown
      */
     private long expiration;
 
+    /**
+     * Creates Lease expiring {@link #LIFETIME_MILLIS} from now
+     * @param tunnelRouter RouterID of tunnel gateway
+     * @param tunnelID tunnel ID for lease
+     */
+    public Lease(RouterID tunnelRouter, int tunnelID) {
+        this(tunnelRouter, tunnelID, System.currentTimeMillis() + LIFETIME_MILLIS);
+    }
+
     /**
      * Creates Lease
      * @param tunnelRouter RouterID of tunnel gateway
      * @param tunnelID tunnel ID for lease
      * @param expiration Expiration of lease in epoch time
      */
-    public Lease(RouterID tunnelRouter, int tunnelID) {
+    public Lease(RouterID tunnelRouter, int tunnelID, long expiration) {
         this.tunnelGW = tunnelRouter.getHash();
         this.tunnelID = tunnelID;
-        // this.expiration = expiration; no longer needed expiration is no longer used
+        this.expiration = expiration;
     }
 
     /**
@@ -45,6 +64,15 @@ public class Lease implements JSONSerializable {
         deserialize(json);
     }
 
+    /**
+     * Creates lease from binary
+     * @param buf buffer to read lease from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    public Lease(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
     @Override
     public void deserialize(JSONType jsonType) throws InvalidObjectException {
         if (!(jsonType instanceof JSONObject))
@@ -54,8 +82,7 @@ public class Lease implements JSONSerializable {
         json.checkValidity(new String[] {"tunnelGW", "tunnelID", "expiration"});
         tunnelGW = Base64.decode(json.getString("tunnelGW"));
         tunnelID = json.getInt("tunnelID");
-        // expiration = json.getLong("expiration"); //well ill be darned ant that handy
-        // stroke your damn ego a little more seth - from sam
+        expiration = json.getLong("expiration");
     }
 
 
@@ -70,6 +97,26 @@ public class Lease implements JSONSerializable {
         return json;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        I2NPCodec.writeBytes(out, tunnelGW);
+        out.writeInt(tunnelID);
+        out.writeLong(expiration);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        tunnelGW = I2NPCodec.readBytes(buf);
+        if (tunnelGW == null)
+            throw new InvalidObjectException("Missing tunnelGW");
+        tunnelID = buf.getInt();
+        expiration = buf.getLong();
+    }
+
     public byte[] getTunnelGW() {
         return tunnelGW;
     }
@@ -1,17 +1,20 @@
 package common.I2P.NetworkDB;
 
 import common.I2P.IDs.Destination;
+import common.I2P.IDs.PublicKeyCache;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONArray;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 
 public class LeaseSet extends Record implements JSONSerializable {
@@ -23,6 +26,10 @@ public class LeaseSet extends Record implements JSONSerializable {
      * Public key for which garlic messages can be encrypted to
      */
     private PublicKey encryptionKey;
+    /**
+     * X509 encoding of {@link #encryptionKey}
+     */
+    private byte[] encodedEncryptionKey;
     /**
      * Signature of this LeaseSet by Destinations Signing Private key
      */
@@ -45,6 +52,7 @@ public class LeaseSet extends Record implements JSONSerializable {
         this.leases = leases;
         this.destination = destination;
         this.encryptionKey = encryptionKey;
+        this.encodedEncryptionKey = encryptionKey.getEncoded();
 
         //sign LeaseSet
         try {
@@ -58,9 +66,9 @@ public class LeaseSet extends Record implements JSONSerializable {
                 signing.update(ByteBuffer.allocate(Long.BYTES).putLong(lease.getExpiration()).array());
             }
             //sign destination
-            signing.update(destination.getSigningPublicKey().getEncoded());
+            signing.update(destination.getEncodedSigningPublicKey());
             //sign encryption key
-            signing.update(encryptionKey.getEncoded());
+            signing.update(encodedEncryptionKey);
             //get signature
             this.signature = signing.sign();
         } catch (NoSuchAlgorithmException | SignatureException e) {
@@ -80,6 +88,16 @@ public class LeaseSet extends Record implements JSONSerializable {
         deserialize(json);
     }
 
+    /**
+     * Create LeaseSet from binary
+     * @param buf buffer to read LeaseSet from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    public LeaseSet(ByteBuffer buf) throws InvalidObjectException {
+        super(RecordType.LEASESET);
+        readFields(buf);
+    }
+
     /**
      * Get SHA256 hash of destination
      * @return 32 byte sha256 hash
@@ -107,9 +125,9 @@ public class LeaseSet extends Record implements JSONSerializable {
                 signing.update(ByteBuffer.allocate(Long.BYTES).putLong(lease.getExpiration()).array());
             }
             //sign destination
-            signing.update(destination.getSigningPublicKey().getEncoded());
+            signing.update(destination.getEncodedSigningPublicKey());
             //sign encryption key
-            signing.update(encryptionKey.getEncoded());
+            signing.update(encodedEncryptionKey);
             //verify signature
             return signing.verify(signature);
         } catch (NoSuchAlgorithmException | SignatureException e) {
@@ -131,12 +149,8 @@ public class LeaseSet extends Record implements JSONSerializable {
         signature = Base64.decode(json.getString("signature"));
 
         //lets decode the encryption key from the bytes
-        byte[] publicKeyBytes = Base64.decode(json.getString("encryptionKey"));
-        try {
-            encryptionKey = KeyFactory.getInstance("ElGamal").generatePublic(new X509EncodedKeySpec(publicKeyBytes));
-        }
-        catch (InvalidKeySpecException e) {throw new InvalidObjectException("Public Key is not valid");}
-        catch (NoSuchAlgorithmException e) {throw new RuntimeException(e);} //should never hit case
+        encodedEncryptionKey = Base64.decode(json.getString("encryptionKey"));
+        encryptionKey = decodeEncryptionKey(encodedEncryptionKey);
 
         //add all Leases in under "leases"
         JSONArray leasesArray = json.getArray("leases");
@@ -153,7 +167,7 @@ public class LeaseSet extends Record implements JSONSerializable {
     public JSONObject toJSONType() {
         JSONObject json = new JSONObject();
         json.put("destination", destination.toJSONType());
-        json.put("encryptionKey", Base64.toBase64String(encryptionKey.getEncoded()));
+        json.put("encryptionKey", Base64.toBase64String(encodedEncryptionKey));
         json.put("signature", Base64.toBase64String(signature));
 
         //add leases as an array
@@ -166,10 +180,80 @@ public class LeaseSet extends Record implements JSONSerializable {
         return json;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        destination.writeBinary(out);
+        I2NPCodec.writeBytes(out, encodedEncryptionKey);
+        I2NPCodec.writeBytes(out, signature);
+
+        out.writeShort(leases.size());
+        for (Lease lease : leases) {
+            lease.writeBinary(out);
+        }
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        destination = new Destination(buf);
+
+        byte[] publicKeyBytes = I2NPCodec.readBytes(buf);
+        if (publicKeyBytes == null)
+            throw new InvalidObjectException("Missing encryptionKey");
+        encryptionKey = decodeEncryptionKey(publicKeyBytes);
+        encodedEncryptionKey = publicKeyBytes;
+
+        signature = I2NPCodec.readBytes(buf);
+        if (signature == null)
+            throw new InvalidObjectException("Missing signature");
+
+        int numLeases = Short.toUnsignedInt(buf.getShort());
+        leases = new ArrayList<>(numLeases);
+        for (int i = 0; i < numLeases; i++) {
+            leases.add(new Lease(buf));
+        }
+    }
+
+    /**
+     * Decode X509 encoded ElGamal public key, keys seen before are taken from {@link PublicKeyCache}
+     * @param publicKeyBytes encoded bytes of key
+     * @return Elgamal public key
+     * @throws InvalidObjectException throws if key is not valid
+     */
+    private static PublicKey decodeEncryptionKey(byte[] publicKeyBytes) throws InvalidObjectException {
+        try {
+            return PublicKeyCache.decode("ElGamal", publicKeyBytes);
+        }
+        catch (InvalidKeySpecException e) {throw new InvalidObjectException("Public Key is not valid");}
+    }
+
     public ArrayList<Lease> getLeases() {
         return leases;
     }
 
+    /**
+     * Get latest expiration of leases in this LeaseSet, LeaseSet is expired once every lease is
+     * @return Latest expiration in epoch time or 0 if no lease has an expiration
+     */
+    public long getExpiration() {
+        long latest = 0;
+        for (Lease lease : leases)
+            latest = Math.max(latest, lease.getExpiration());
+        return latest;
+    }
+
+    /**
+     * Get time this LeaseSet was published, leases all have the same lifetime so later expiration means newer
+     * @return {@link #getExpiration()}
+     */
+    @Override
+    public long getPublished() {
+        return getExpiration();
+    }
+
     public Destination getDestination() {
         return destination;
     }
@@ -0,0 +1,363 @@
+package common.I2P.NetworkDB;
+
+import common.I2P.I2NP.DatabaseLookup;
+import common.I2P.I2NP.DatabaseSearchReply;
+import common.I2P.I2NP.I2NPHeader;
+import common.Logger;
+import common.transport.OutboundTransport;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Iterative Kademlia lookups of records in the network
+ *
+ * <p>Each lookup keeps a shortlist of peers ordered by XOR distance of their routing key to the key we want and has up
+ * to {@link #ALPHA} queries outstanding at once. Peers returned in search replies are added to the shortlist, a peer
+ * is never queried twice and a peer that does not answer in {@link #QUERY_TIMEOUT_MILLIS} is reported unresponsive to
+ * NetDB. A lookup ends when the record is stored in NetDB, when every peer among the {@link #SHORTLIST_SIZE} closest
+ * has been queried, or when it times out.</p>
+ *
+ * <p>Concurrent lookups for the same key share one lookup, each caller still gets its own timeout and the shared
+ * lookup runs until the longest of them or until peers are exhausted. Search replies are handed to
+ * {@link #handleSearchReply(DatabaseSearchReply)}, records found are handed to NetDB as usual.</p>
+ */
+public class LookupEngine {
+    /**
+     * Max number of queries outstanding for a lookup
+     */
+    public static final int ALPHA = 3;
+    /**
+     * Number of closest peers in shortlist which must all be queried before a lookup gives up
+     */
+    private static final int SHORTLIST_SIZE = 8;
+    /**
+     * Max number of peers queried for a lookup
+     */
+    private static final int MAX_QUERIES = 24;
+    /**
+     * Milliseconds to wait for a peer to answer a query
+     */
+    static final long QUERY_TIMEOUT_MILLIS = 150;
+
+    /**
+     * NetDB records are found in
+     */
+    private final NetDB netDB;
+    /**
+     * RouterInfo of this router, replies are sent to it
+     */
+    private final RouterInfo router;
+    /**
+     * Transport to send queries on
+     */
+    private final OutboundTransport transport;
+    /**
+     * Lookups in progress keyed under key being looked up
+     */
+    private final ConcurrentHashMap<RoutingKey, Lookup> lookups = new ConcurrentHashMap<>();
+    /**
+     * Times out queries
+     */
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "NetDB-lookup");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SecureRandom random = new SecureRandom();
+    private final Logger log = Logger.getInstance();
+
+    /**
+     * Create lookup engine
+     * @param netDB NetDB to find peers in and records are stored in
+     * @param router RouterInfo of this router
+     * @param transport Transport to send queries on
+     */
+    public LookupEngine(NetDB netDB, RouterInfo router, OutboundTransport transport) {
+        this.netDB = netDB;
+        this.router = router;
+        this.transport = transport;
+    }
+
+    /**
+     * Find a record, asking peers if we do not have it
+     * @param key 32 byte SHA256 hash of record to find
+     * @param timeoutMillis Milliseconds to wait for record before completing with null
+     * @return Future completed with Record {@code RouterInfo or LeaseSet}, or null if it was not found
+     */
+    public CompletableFuture<Record> lookup(byte[] key, long timeoutMillis) {
+        if (key.length != RoutingKey.LENGTH)
+            return netDB.lookupAsync(key, timeoutMillis); //completes with null, no record has this key
+
+        //lookup may finish as soon as it starts, so it is started outside the map where it can remove itself
+        RoutingKey id = RoutingKey.fromBytes(key);
+        Lookup lookup = lookups.get(id);
+        if (lookup == null) {
+            Lookup created = new Lookup(id, key);
+            lookup = lookups.putIfAbsent(id, created);
+            if (lookup == null) {
+                lookup = created;
+                lookup.start(timeoutMillis);
+            }
+        }
+        lookup.extend(timeoutMillis);
+        //a shorter timeout of another caller must not end this caller's wait early, nor ours theirs
+        return lookup.result.copy().completeOnTimeout(null, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Continue the lookup a search reply belongs to
+     * @param reply Search reply from a peer we queried
+     * @return true if reply belongs to a lookup in progress
+     */
+    public boolean handleSearchReply(DatabaseSearchReply reply) {
+        if (reply.getKey() == null || reply.getKey().length != RoutingKey.LENGTH)
+            return false;
+        Lookup lookup = lookups.get(RoutingKey.fromBytes(reply.getKey()));
+        if (lookup == null)
+            return false;
+        lookup.onReply(reply);
+        return true;
+    }
+
+    /**
+     * Send a DatabaseLookup for a key to a peer
+     * @throws IOException if message could not be sent
+     */
+    private void sendQuery(byte[] key, RouterInfo peer) throws IOException {
+        I2NPHeader query = new I2NPHeader(I2NPHeader.TYPE.DATABASELOOKUP, random.nextInt(),
+                System.currentTimeMillis() + QUERY_TIMEOUT_MILLIS, new DatabaseLookup(key, router.getHash()));
+        transport.sendMessage(query, peer);
+    }
+
+    /**
+     * State of a single lookup, guarded by its own monitor
+     */
+    private final class Lookup {
+        /**
+         * Key of lookup in {@link #lookups}
+         */
+        private final RoutingKey id;
+        /**
+         * Key being looked up
+         */
+        private final byte[] key;
+        /**
+         * Completed with record once NetDB stores it, or with null on timeout or when peers are exhausted
+         */
+        private final CompletableFuture<Record> result = new CompletableFuture<>();
+        /**
+         * Peers we know of ordered by distance to key, closest first
+         */
+        private final TreeMap<RoutingKey, RouterInfo> shortlist;
+        /**
+         * Peers already queried
+         */
+        private final HashSet<RoutingKey> queried = new HashSet<>();
+        /**
+         * Timeouts of queries waiting for an answer keyed under peer
+         */
+        private final HashMap<RoutingKey, ScheduledFuture<?>> inFlight = new HashMap<>();
+        /**
+         * Peers from search replies whose RouterInfo we are asking for
+         */
+        private final HashSet<RoutingKey> resolving = new HashSet<>();
+        /**
+         * Time lookup gives up in milliseconds since epoch, latest timeout any caller asked for
+         */
+        private long deadline;
+        /**
+         * Completes result with null at deadline
+         */
+        private ScheduledFuture<?> expiry;
+        private int queries;
+
+        private Lookup(RoutingKey id, byte[] key) {
+            this.id = id;
+            this.key = key.clone();
+            RoutingKey target = netDB.routingKeyOf(key);
+            this.shortlist = new TreeMap<>(target.closestFirst());
+        }
+
+        /**
+         * Wait for record in NetDB and query closest peers, called once after lookup is in {@link #lookups}
+         * @param timeoutMillis Milliseconds to wait for record before completing with null
+         */
+        private synchronized void start(long timeoutMillis) {
+            //deadline is kept by this lookup since callers may extend it, we complete NetDB's wait when we finish
+            CompletableFuture<Record> stored = netDB.lookupAsync(key, Long.MAX_VALUE);
+            stored.thenAccept(record -> {
+                if (record != null)
+                    result.complete(record);
+            });
+            result.whenComplete((record, e) -> {
+                stored.complete(null);
+                finish();
+            });
+            extend(timeoutMillis);
+            if (result.isDone())
+                return; //we already have record
+
+            for (RouterInfo peer : netDB.getKClosestRouters(key, SHORTLIST_SIZE))
+                addCandidate(peer);
+            advance();
+        }
+
+        /**
+         * Keep lookup running for at least timeoutMillis from now
+         * @param timeoutMillis Milliseconds a caller waits for record
+         */
+        private synchronized void extend(long timeoutMillis) {
+            if (result.isDone())
+                return;
+            long requested = System.currentTimeMillis() + timeoutMillis;
+            if (requested <= deadline)
+                return;
+            deadline = requested;
+            if (expiry != null)
+                expiry.cancel(false);
+            expiry = timer.schedule(() -> result.complete(null), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Handle search reply, adding peers it returned to the shortlist
+         */
+        private synchronized void onReply(DatabaseSearchReply reply) {
+            if (result.isDone())
+                return;
+
+            RoutingKey from = netDB.routingKeyOf(reply.getFromHash());
+            ScheduledFuture<?> timeout = inFlight.remove(from);
+            if (timeout != null) {
+                timeout.cancel(false);
+                //fromHash is not authenticated, only a reply to a query still waiting tells us a peer is alive
+                netDB.markSeen(reply.getFromHash());
+            }
+
+            Record replier = netDB.lookup(reply.getFromHash());
+            for (byte[] hash : reply.getPeerHashes()) {
+                if (hash == null || Arrays.equals(hash, router.getHash()))
+                    continue;
+                Record peer = netDB.lookup(hash);
+                if (peer instanceof RouterInfo peerInfo)
+                    addCandidate(peerInfo);
+                else if (replier instanceof RouterInfo replierInfo)
+                    resolve(hash, replierInfo);
+            }
+            advance();
+        }
+
+        /**
+         * Ask peer who returned an unknown peer for its RouterInfo, it is added to the shortlist once stored
+         */
+        private void resolve(byte[] hash, RouterInfo replier) {
+            RoutingKey peerKey = netDB.routingKeyOf(hash);
+            if (queried.contains(peerKey) || shortlist.containsKey(peerKey) || !resolving.add(peerKey))
+                return;
+
+            CompletableFuture<Record> found = netDB.lookupAsync(hash, QUERY_TIMEOUT_MILLIS);
+            if (!found.isDone()) {
+                try {
+                    sendQuery(hash, replier);
+                } catch (IOException e) {
+                    log.warn("LookupEngine: Could not send query to peer " + e.getMessage());
+                }
+            }
+            found.whenComplete((record, e) -> {
+                synchronized (this) {
+                    resolving.remove(peerKey);
+                    if (record instanceof RouterInfo peerInfo)
+                        addCandidate(peerInfo);
+                    advance();
+                }
+            });
+        }
+
+        private void addCandidate(RouterInfo peer) {
+            if (Arrays.equals(peer.getHash(), router.getHash()))
+                return;
+            shortlist.putIfAbsent(netDB.routingKeyOf(peer.getHash()), peer);
+        }
+
+        /**
+         * Query closest unqueried peers until {@link #ALPHA} queries are outstanding, completes lookup with null if
+         * there is no one left to ask
+         */
+        private void advance() {
+            if (result.isDone())
+                return;
+
+            while (inFlight.size() < ALPHA && queries < MAX_QUERIES) {
+                Map.Entry<RoutingKey, RouterInfo> next = closestUnqueried();
+                if (next == null)
+                    break;
+                query(next.getKey(), next.getValue());
+            }
+
+            if (inFlight.isEmpty() && resolving.isEmpty()) {
+                log.debug("LookupEngine: Lookup exhausted after querying " + queries + " peers");
+                result.complete(null);
+            }
+        }
+
+        /**
+         * Get closest peer in shortlist which was not queried yet, only the {@link #SHORTLIST_SIZE} closest are
+         * considered so lookup converges
+         */
+        private Map.Entry<RoutingKey, RouterInfo> closestUnqueried() {
+            Iterator<Map.Entry<RoutingKey, RouterInfo>> it = shortlist.entrySet().iterator();
+            for (int i = 0; i < SHORTLIST_SIZE && it.hasNext(); i++) {
+                Map.Entry<RoutingKey, RouterInfo> entry = it.next();
+                if (!queried.contains(entry.getKey()))
+                    return entry;
+            }
+            return null;
+        }
+
+        private void query(RoutingKey peerKey, RouterInfo peer) {
+            queried.add(peerKey);
+            queries++;
+            try {
+                sendQuery(key, peer);
+            } catch (IOException e) {
+                log.warn("LookupEngine: Could not send query to peer " + e.getMessage());
+                netDB.reportUnresponsive(peer.getHash());
+                return;
+            }
+            inFlight.put(peerKey, timer.schedule(() -> onTimeout(peerKey, peer), QUERY_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS));
+        }
+
+        private synchronized void onTimeout(RoutingKey peerKey, RouterInfo peer) {
+            if (inFlight.remove(peerKey) == null)
+                return; //answered or lookup finished
+            log.trace("LookupEngine: Query to peer " + peer.getPort() + " timed out");
+            netDB.reportUnresponsive(peer.getHash());
+            advance();
+        }
+
+        /**
+         * Stop outstanding queries once lookup is complete
+         */
+        private synchronized void finish() {
+            if (expiry != null)
+                expiry.cancel(false);
+            for (ScheduledFuture<?> timeout : inFlight.values())
+                timeout.cancel(false);
+            inFlight.clear();
+            lookups.remove(id, this);
+        }
+    }
+}
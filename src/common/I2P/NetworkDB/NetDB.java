@@ -3,88 +3,354 @@ package common.I2P.NetworkDB;
 import common.Logger;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Network database to store information about peers using modified Kademlia algorithm
+ *
+ * <p>Thread-safe, reads are lock-free against the current {@link RoutingTable}. Stores share a read lock so they
+ * run concurrently, key rotation takes the write lock so no store is lost while tables are swapped.</p>
+ *
+ * <p>Routing keys rotate every UTC hour. A background thread builds the next hour's table shortly before the hour
+ * ends while stores are written to both tables, at the boundary the prepared table is swapped in. Only if the next
+ * table is not ready in time is it rebuilt by the first caller of the new hour.</p>
  */
 public class NetDB {
     /**
-     * Router Info for this router maintaining the netDB
+     * Default max number of records in each bucket
      */
-    private RouterInfo routerInfo;
-    private byte[] rootRoutingKey;
+    public static final int DEFAULT_BUCKET_CAPACITY = 20;
     /**
-     * RoutingTable has 256 buckets(32 byte sha256 hash) each bucket has an entry keyed under a hash of that entry with
-     * a corresponding record to that hash(RouterInfo or LeaseSet)
+     * Default milliseconds a RouterInfo is kept after it was published or its router was last seen
      */
-    private HashMap<Integer, HashMap<String, Record>> routingTable;
+    public static final long DEFAULT_ROUTERINFO_MAX_AGE_MILLIS = 24 * 3_600_000L;
+    /**
+     * Format of hour appended to hashes to compute routing keys
+     */
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH");
+    /**
+     * Milliseconds in an hour, UTC hours start on multiples of this since epoch
+     */
+    private static final long MILLIS_PER_HOUR = 3_600_000L;
+    /**
+     * Max number of routing keys cached for each hour
+     */
+    private static final int MAX_CACHED_ROUTING_KEYS = 4096;
+    /**
+     * Milliseconds before the end of the hour to start building the next hour's table
+     */
+    private static final long ROTATION_LEAD_MILLIS = 60_000L;
+    /**
+     * Milliseconds between removing expired records
+     */
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000L;
+    /**
+     * Milliseconds a LeaseSet without lease expirations is kept after it was stored
+     */
+    private static final long UNKNOWN_LEASESET_LIFETIME_MILLIS = Lease.LIFETIME_MILLIS;
+    /**
+     * Max number of signature verification results cached
+     */
+    private static final int SIGNATURE_CACHE_CAPACITY = 8192;
+    /**
+     * SHA256 digest for each thread, reused for every routing key computed on that thread
+     */
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex); //should not hit this case
+        }
+    });
+
+    /**
+     * Router Info for this router maintaining the netDB, replaced when our RouterInfo is republished
+     */
+    private volatile RouterInfo routerInfo;
+    /**
+     * Current routing table, replaced with a new table when keys rotate
+     */
+    private volatile RoutingTable routingTable;
+    /**
+     * Table for next hour while it is being prepared, stores are written to it as well as the current table
+     */
+    private volatile RoutingTable nextTable;
+    /**
+     * Prepares and swaps in the next hour's table and writes snapshots
+     */
+    private final ScheduledExecutorService maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "NetDB-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Stores hold read lock, rotation holds write lock
+     */
+    private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock();
     /**
      * Logger for this branch
      */
     private Logger log = Logger.getInstance();
-    private String lastHour;
+    /**
+     * Lookups waiting for a record to be stored, keyed under hash of record
+     */
+    private final ConcurrentHashMap<RoutingKey, List<CompletableFuture<Record>>> pendingLookups = new ConcurrentHashMap<>();
+    /**
+     * Max number of records in each bucket
+     */
+    private final int bucketCapacity;
+    /**
+     * Number of unresponsive peers evicted from buckets
+     */
+    private final AtomicLong evictions = new AtomicLong();
+    /**
+     * Number of records put in a replacement cache because their bucket was full
+     */
+    private final AtomicLong replacementCacheAdds = new AtomicLong();
+    /**
+     * Max milliseconds a RouterInfo is kept after it was published or its router was last seen
+     */
+    private final long routerInfoMaxAgeMillis;
+    /**
+     * Number of expired records removed
+     */
+    private final AtomicLong expiredRecords = new AtomicLong();
+    /**
+     * Results of signature verification so records stored again are not verified again
+     */
+    private final SignatureCache signatureCache = new SignatureCache(SIGNATURE_CACHE_CAPACITY);
+    /**
+     * Snapshot records are saved to, null if snapshots are disabled
+     */
+    private volatile NetDBSnapshot snapshot;
+    /**
+     * Records stored since last snapshot was written, keyed under hash so a record stored often is written once
+     */
+    private final ConcurrentHashMap<RoutingKey, Record> unsaved = new ConcurrentHashMap<>();
 
     /**
-     * Create a new NetDB for this router {@code routerInfo}
+     * Create a new NetDB for this router {@code routerInfo} with {@link #DEFAULT_BUCKET_CAPACITY} records per bucket
      * @param routerInfo routerInfo
      */
     public NetDB(RouterInfo routerInfo) {
-        routingTable = new HashMap<>(); //create new routingTable we will use lazy initialization for each bucket
-
-        this.routerInfo = routerInfo;
-        //set hour off last key rotation
-        //chatGPT generated date formatting
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyyMMddHH");
+        this(routerInfo, DEFAULT_BUCKET_CAPACITY);
+    }
 
-        lastHour = Instant.now()                // current moment
-                .truncatedTo(ChronoUnit.HOURS)  // drop mins/sec/nanos
-                .atZone(ZoneOffset.UTC)         // view in UTC
-                .format(fmt);                   // format as yyyyMMddHH
+    /**
+     * Create a new NetDB for this router {@code routerInfo} keeping RouterInfos for
+     * {@link #DEFAULT_ROUTERINFO_MAX_AGE_MILLIS}
+     * @param routerInfo routerInfo
+     * @param bucketCapacity Max number of records in each bucket, records past this wait in a replacement cache
+     */
+    public NetDB(RouterInfo routerInfo, int bucketCapacity) {
+        this(routerInfo, bucketCapacity, DEFAULT_ROUTERINFO_MAX_AGE_MILLIS);
+    }
 
-        this.rootRoutingKey = computeRoutingKey(routerInfo.getHash());
+    /**
+     * Create a new NetDB for this router {@code routerInfo}
+     * @param routerInfo routerInfo
+     * @param bucketCapacity Max number of records in each bucket, records past this wait in a replacement cache
+     * @param routerInfoMaxAgeMillis Milliseconds a RouterInfo is kept after it was published or its router was last
+     *                               seen, LeaseSets are kept until their leases expire
+     */
+    public NetDB(RouterInfo routerInfo, int bucketCapacity, long routerInfoMaxAgeMillis) {
+        if (bucketCapacity < 1)
+            throw new IllegalArgumentException("bucketCapacity must be at least 1");
+        if (routerInfoMaxAgeMillis <= 0)
+            throw new IllegalArgumentException("routerInfoMaxAgeMillis must be positive");
+        this.routerInfo = routerInfo;
+        this.bucketCapacity = bucketCapacity;
+        this.routerInfoMaxAgeMillis = routerInfoMaxAgeMillis;
+        //create new routingTable for this hour we will use lazy initialization for each bucket
+        routingTable = new RoutingTable(currentEpochHour(), routerInfo.getHash(), bucketCapacity);
+        scheduleRotation();
+        maintenanceExecutor.scheduleWithFixedDelay(this::removeExpired, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Store a record in this netDB
+     * Store a record in this netDB, any lookups waiting for this record are completed
      * @param record Record to store {@code RouterInfo or LeaseSet}
      */
-    public synchronized void store(Record record) {
-        if (!record.verifySignature()) {
-            log.warn("NetDB: Record has Invalid signature disregarding");
+    public void store(Record record) {
+        //complete outside of lock so callbacks of waiting lookups do not run while holding it
+        if (!storeRecord(record))
             return;
+        if (snapshot != null)
+            unsaved.put(RoutingKey.fromBytes(record.getHash()), record);
+        completePendingLookups(record.getHash(), record);
+    }
+
+    /**
+     * Store records of a snapshot, each record's signature is verified as with any other store
+     * @param snapshot Snapshot to load
+     * @return Number of records stored
+     */
+    public int restore(NetDBSnapshot snapshot) {
+        int restored = 0;
+        for (Record record : snapshot.load()) {
+            if (storeRecord(record))
+                restored++;
         }
-        byte[] routingKey = computeRoutingKey(record.getHash());
+        log.info("NetDB: Restored " + restored + " records from snapshot");
+        return restored;
+    }
 
-        //avoid storing ourselfs so we do not get our own hash when getting k closest peers
-        if (Arrays.equals(routingKey, rootRoutingKey))
-            return;
+    /**
+     * Start saving records to a snapshot, records stored since the last save are appended every interval and the
+     * snapshot is compacted once it holds more stale copies than live records
+     * @param snapshot Snapshot to save to
+     * @param intervalMillis Milliseconds between saves
+     */
+    public void startSnapshots(NetDBSnapshot snapshot, long intervalMillis) {
+        this.snapshot = snapshot;
+        //rewrite snapshot first so records are not appended after a partial record left by a crash
+        maintenanceExecutor.execute(() -> compactSnapshot(snapshot));
+        maintenanceExecutor.scheduleWithFixedDelay(() -> saveSnapshot(snapshot), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append records stored since the last save to the snapshot
+     * @param snapshot Snapshot to save to
+     */
+    private void saveSnapshot(NetDBSnapshot snapshot) {
+        ArrayList<Record> records = new ArrayList<>(unsaved.size());
+        for (RoutingKey key : unsaved.keySet()) {
+            Record record = unsaved.remove(key);
+            if (record != null)
+                records.add(record);
+        }
+        try {
+            snapshot.append(records);
+        } catch (IOException e) {
+            log.warn("NetDB: Could not save snapshot", e);
+        }
 
-        //calculate distance between hash and record hash
-        int distance = calculateXORMetric(rootRoutingKey, routingKey);
+        if (snapshot.needsCompaction(recordCount()))
+            compactSnapshot(snapshot);
+    }
 
-        //get bucket at distance
-        HashMap<String, Record> bucket = routingTable.get(distance);
+    /**
+     * Rewrite snapshot with every record we have
+     * @param snapshot Snapshot to save to
+     */
+    private void compactSnapshot(NetDBSnapshot snapshot) {
+        try {
+            snapshot.compact(allRecords());
+        } catch (IOException e) {
+            log.warn("NetDB: Could not compact snapshot", e);
+        }
+    }
+
+    /**
+     * Count records in the current table including records in replacement caches
+     * @return Number of records in NetDB
+     */
+    private int recordCount() {
+        int count = 0;
+        for (KBucket bucket : routingTable.buckets.values())
+            count += bucket.size() + bucket.replacementSize() + bucket.leaseSetSize();
+        return count;
+    }
+
+    /**
+     * Get every record in the current table including records in replacement caches
+     * @return Records in NetDB
+     */
+    private ArrayList<Record> allRecords() {
+        ArrayList<Record> records = new ArrayList<>();
+        for (KBucket bucket : routingTable.buckets.values()) {
+            for (KBucket.Entry entry : bucket.entries())
+                records.add(entry.getRecord());
+            for (KBucket.Entry entry : bucket.replacementEntries())
+                records.add(entry.getRecord());
+            for (KBucket.Entry entry : bucket.leaseSetEntries())
+                records.add(entry.getRecord());
+        }
+        return records;
+    }
+
+    /**
+     * Put a record in the routing table
+     * @param record Record to store
+     * @return true if record was stored
+     */
+    private boolean storeRecord(Record record) {
+        long now = System.currentTimeMillis();
+        //a record arriving has not been seen yet so only its publish time counts, checked first since it is cheap
+        if (isExpired(record, now, 0, now)) {
+            log.debug("NetDB: Record has already expired disregarding");
+            return false;
+        }
+        if (!signatureCache.verify(record)) {
+            log.warn("NetDB: Record has Invalid signature disregarding");
+            return false;
+        }
+        rotateIfNeeded();
 
-        //no bucket in routingTable so lets add it
-        if (bucket == null) {
-            bucket = new HashMap<>();
-            routingTable.put(distance, bucket);
+        //hold read lock so keys cannot rotate between computing routing key and putting record in table
+        rotationLock.readLock().lock();
+        try {
+            RoutingTable table = routingTable;
+            RoutingKey routingKey = table.routingKey(record.getHash());
+
+            //avoid storing ourselfs so we do not get our own hash when getting k closest peers
+            if (routingKey.equals(table.rootRoutingKey))
+                return false;
+
+            //calculate distance between hash and record hash, put record under routing key in bucket at distance
+            int distance = table.rootRoutingKey.bucketDistance(routingKey);
+            KBucket.Placement placement = table.put(distance, routingKey, record);
+            if (placement == KBucket.Placement.STALE) {
+                log.debug("NetDB: Newer copy of record already stored disregarding");
+                return false;
+            }
+            if (placement == KBucket.Placement.EVICTED_UNRESPONSIVE)
+                evictions.incrementAndGet();
+            else if (placement == KBucket.Placement.REPLACEMENT_CACHE)
+                replacementCacheAdds.incrementAndGet();
+            if (log.isEnabled(Logger.Level.DEBUG))
+                log.debug("Put record into bucket " + distance + " (" + placement + ") hash "
+                        + Base64.toBase64String(routingKey.toBytes()));
+
+            //next hour's table is being prepared, write to it too so it is not missing this record when swapped in
+            RoutingTable next = nextTable;
+            if (next != null && next.epochHour > table.epochHour) {
+                RoutingKey nextKey = next.routingKey(record.getHash());
+                next.put(next.rootRoutingKey.bucketDistance(nextKey), nextKey, record);
+            }
+        } finally {
+            rotationLock.readLock().unlock();
         }
+        if (log.isEnabled(Logger.Level.TRACE))
+            log.trace(logNetDB());
+        return true;
+    }
 
-        //put record under routing key
-        bucket.put(Base64.toBase64String(routingKey), record);
-        log.debug("Put record into bucket " + distance + " hash " + Base64.toBase64String(routingKey));
-        log.trace(logNetDB());
+    /**
+     * Replace our RouterInfo with a newly published copy, handed out when peers look us up
+     * @param routerInfo RouterInfo of this router with a newer publish date
+     * @throws IllegalArgumentException if RouterInfo belongs to another router
+     */
+    public void updateRouterInfo(RouterInfo routerInfo) {
+        if (!Arrays.equals(routerInfo.getHash(), this.routerInfo.getHash()))
+            throw new IllegalArgumentException("RouterInfo belongs to another router");
+        this.routerInfo = routerInfo;
     }
 
     /**
@@ -92,212 +358,465 @@ public class NetDB {
      * @param key 32 byte SHA256 hash of record entry to find
      * @return Record {@code RouterInfo or LeaseSet} or null if record is not found
      */
-    public synchronized Record lookup(byte[] key) {
-        //get routing key
-        byte[] routingKey = computeRoutingKey(key);
-
+    public Record lookup(byte[] key) {
         if (Arrays.equals(key, routerInfo.getHash())) //we do not store ourselves so we handle that case here
             return routerInfo;
 
+        //get routing key
+        RoutingTable table = currentTable();
+        RoutingKey routingKey = table.routingKey(key);
 
         //calculate distance between hash and record we want to find(under key)
-        int distance = calculateXORMetric(rootRoutingKey, routingKey);
-        log.trace("NetDB: distance is " + distance);
+        int distance = table.rootRoutingKey.bucketDistance(routingKey);
 
         //get bucket key would be stored in
-        HashMap<String, Record> bucket = routingTable.get(distance);
+        KBucket bucket = table.buckets.get(distance);
         //if no bucket exists then return null we do not have Record
         if (bucket == null)
             return null;
         //Attempt to find record in bucket(will return null if not found)
-        log.trace(logNetDB());
-        return bucket.get(Base64.toBase64String(routingKey));
+        KBucket.Entry entry = bucket.getEntry(routingKey);
+        if (entry == null)
+            return null;
+        //do not hand out records that expired since the last sweep
+        long now = System.currentTimeMillis();
+        return isExpired(entry.getRecord(), entry.getStoredAt(), entry.getLastSeen(), now) ? null : entry.getRecord();
     }
 
     /**
-     * Retrieve up to {@code k} closest RouterInfo records to the given key from the routing table.
-     * Only RouterInfos will be returned, LeaseSets are ignored.
-     *
-     * @param key the 32-byte SHA256 hash key to find close routers for
-     * @param k the maximum number of RouterInfos to return
-     * @return a list of up to {@code k} closest RouterInfo Records
-     *
-     * @author ChatGPT (OpenAI Assistant) - collaborator
-     * @deprecated Since 5/1/2025
+     * Check if a record is expired, RouterInfos expire max age after they were published or their router was last
+     * seen (a router is first seen when stored), LeaseSets expire when their last lease does
+     * @param record Record to check
+     * @param storedAt Time record was stored
+     * @param lastSeen Time router of record was last seen
+     * @param now Current time
+     * @return true if record is expired
      */
-    public synchronized ArrayList<RouterInfo> getKClosestRouterInfos(byte[] key, int k) {
-        // Calculate XOR distance from our own router ID to the target key
-        byte[] routingKey = computeRoutingKey(key);
-        int startDistance = calculateXORMetric(rootRoutingKey, routingKey);
-        //below is chatgpt generated but it did what i wanted for this kind of annoying bit of code
+    private boolean isExpired(Record record, long storedAt, long lastSeen, long now) {
+        if (record.getRecordType() == Record.RecordType.ROUTERINFO)
+            return now - Math.max(((RouterInfo) record).getDate(), lastSeen) > routerInfoMaxAgeMillis;
+
+        long expiration = ((LeaseSet) record).getExpiration();
+        if (expiration == 0) //leases without expiration from older routers
+            expiration = storedAt + UNKNOWN_LEASESET_LIFETIME_MILLIS;
+        return expiration < now;
+    }
 
-        ArrayList<RouterInfo> result = new ArrayList<>(k); // Prepare result list with initial capacity
+    /**
+     * Remove expired records from buckets and replacement caches, run periodically on the maintenance thread
+     */
+    private void removeExpired() {
+        try {
+            long now = System.currentTimeMillis();
+            int removed = 0;
+            for (RoutingTable table : new RoutingTable[] {routingTable, nextTable}) {
+                if (table == null)
+                    continue;
+                for (KBucket bucket : table.buckets.values())
+                    removed += bucket.removeIf(entry -> isExpired(entry.getRecord(), entry.getStoredAt(),
+                            entry.getLastSeen(), now));
+            }
+            if (removed > 0) {
+                expiredRecords.addAndGet(removed);
+                log.debug("NetDB: Removed " + removed + " expired records");
+            }
+        } catch (RuntimeException e) {
+            log.error("NetDB: Could not remove expired records", e);
+        }
+    }
 
-        int lower = startDistance;    // Start searching downward
-        int higher = startDistance + 1; // Start searching upward
+    /**
+     * @return Number of stores whose signature verification was answered from cache
+     */
+    public long getSignatureCacheHits() {
+        return signatureCache.getHits();
+    }
 
-        // Expand search outward until we find enough RouterInfo records or search bounds exhausted
-        while (result.size() < k && (lower >= 0 || higher <= 255)) {
+    /**
+     * @return Number of stores whose signature had to be verified
+     */
+    public long getSignatureCacheMisses() {
+        return signatureCache.getMisses();
+    }
 
-            // Check lower bucket if in bounds
-            if (lower >= 0) {
-                HashMap<String, Record> bucket = routingTable.get(lower);
-                if (bucket != null) {
-                    for (Record record : bucket.values()) {
-                        // Only add if the record is of type ROUTERINFO
-                        if (record.getRecordType() == Record.RecordType.ROUTERINFO) {
-                            result.add((RouterInfo) record);
-                            if (result.size() >= k) {
-                                break; // Stop if we have enough
-                            }
-                        }
-                    }
-                }
-                lower--; // Move to next lower bucket
-            }
+    /**
+     * @return Number of expired records removed since start
+     */
+    public long getExpiredCount() {
+        return expiredRecords.get();
+    }
 
-            // Check higher bucket if in bounds
-            if (higher <= 255) {
-                HashMap<String, Record> bucket = routingTable.get(higher);
-                if (bucket != null) {
-                    for (Record record : bucket.values()) {
-                        // Only add if the record is of type ROUTERINFO
-                        if (record.getRecordType() == Record.RecordType.ROUTERINFO) {
-                            result.add((RouterInfo) record);
-                            if (result.size() >= k) {
-                                break; // Stop if we have enough
-                            }
-                        }
-                    }
-                }
-                higher++; // Move to next higher bucket
-            }
+    /**
+     * Mark a peer as seen because it responded to us, a peer seen recently is kept over new peers when its bucket is full
+     * @param hash Hash of peer's RouterInfo
+     */
+    public void markSeen(byte[] hash) {
+        long now = System.currentTimeMillis();
+        RoutingTable table = currentTable();
+        RoutingKey routingKey = table.routingKey(hash);
+        KBucket bucket = table.buckets.get(table.rootRoutingKey.bucketDistance(routingKey));
+        if (bucket != null)
+            bucket.markSeen(routingKey, now);
+
+        //keep liveness in next hour's table if it has already copied this peer
+        RoutingTable next = nextTable;
+        if (next != null && next.epochHour > table.epochHour) {
+            RoutingKey nextKey = next.routingKey(hash);
+            KBucket nextBucket = next.buckets.get(next.rootRoutingKey.bucketDistance(nextKey));
+            if (nextBucket != null)
+                nextBucket.markSeen(nextKey, now);
         }
+    }
+
+    /**
+     * Report that a peer did not respond to a request, after {@link KBucket#MAX_FAILURES} reports in a row the peer is
+     * replaced by a peer from its bucket's replacement cache
+     * @param hash Hash of peer's RouterInfo
+     */
+    public void reportUnresponsive(byte[] hash) {
+        RoutingTable table = currentTable();
+        RoutingKey routingKey = table.routingKey(hash);
+        KBucket bucket = table.buckets.get(table.rootRoutingKey.bucketDistance(routingKey));
+        if (bucket != null && bucket.reportUnresponsive(routingKey)) {
+            evictions.incrementAndGet();
+            log.debug("NetDB: Evicted unresponsive peer " + Base64.toBase64String(hash));
+        }
+
+        //count failure in next hour's table too so it is not lost when tables are swapped
+        RoutingTable next = nextTable;
+        if (next != null && next.epochHour > table.epochHour) {
+            RoutingKey nextKey = next.routingKey(hash);
+            KBucket nextBucket = next.buckets.get(next.rootRoutingKey.bucketDistance(nextKey));
+            if (nextBucket != null)
+                nextBucket.reportUnresponsive(nextKey);
+        }
+    }
+
+    /**
+     * Get number of records in each bucket
+     * @return Array of 257 bucket sizes indexed by bucket, records in replacement caches are not counted
+     */
+    public int[] getBucketOccupancy() {
+        int[] occupancy = new int[257];
+        for (Map.Entry<Integer, KBucket> bucket : routingTable.buckets.entrySet())
+            occupancy[bucket.getKey()] = bucket.getValue().size();
+        return occupancy;
+    }
+
+    /**
+     * @return Max number of records in each bucket
+     */
+    public int getBucketCapacity() {
+        return bucketCapacity;
+    }
+
+    /**
+     * @return Number of unresponsive peers evicted from buckets since start
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return Number of records put in a replacement cache since start because their bucket was full
+     */
+    public long getReplacementCacheCount() {
+        return replacementCacheAdds.get();
+    }
+
+    /**
+     * Lookup a Record in the Network Database, waiting for it to be stored if we do not have it yet
+     *
+     * <p>Caller should ask peers for the record after calling this, the returned future completes as soon as a
+     * matching DatabaseStore is handled, so no reply is missed between asking and waiting.</p>
+     *
+     * @param key 32 byte SHA256 hash of record entry to find
+     * @param timeoutMillis Milliseconds to wait for the record before completing with null
+     * @return Future completed with Record {@code RouterInfo or LeaseSet}, or null if record was not stored in time
+     */
+    public CompletableFuture<Record> lookupAsync(byte[] key, long timeoutMillis) {
+        //every record is stored under a 32 byte hash, no store can match any other key
+        if (key.length != RoutingKey.LENGTH)
+            return CompletableFuture.completedFuture(null);
+
+        RoutingKey pendingKey = RoutingKey.fromBytes(key);
+        CompletableFuture<Record> future = new CompletableFuture<>();
+
+        pendingLookups.compute(pendingKey, (k, waiting) -> {
+            if (waiting == null)
+                waiting = new ArrayList<>();
+            waiting.add(future);
+            return waiting;
+        });
+        //remove ourselves once completed so lookups which time out do not leak
+        future.whenComplete((record, e) -> pendingLookups.computeIfPresent(pendingKey, (k, waiting) -> {
+            waiting.remove(future);
+            return waiting.isEmpty() ? null : waiting;
+        }));
+
+        //check after registering so a store between check and registering is not missed
+        Record record = lookup(key);
+        if (record != null)
+            future.complete(record);
+        else
+            future.completeOnTimeout(null, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        return future;
+    }
+
+    /**
+     * Complete lookups waiting on a record
+     * @param key Hash of record
+     * @param record Record which was stored
+     */
+    private void completePendingLookups(byte[] key, Record record) {
+        List<CompletableFuture<Record>> waiting = pendingLookups.remove(RoutingKey.fromBytes(key));
+        if (waiting == null)
+            return;
+        for (CompletableFuture<Record> future : waiting)
+            future.complete(record);
+    }
+
+    /**
+     * Get routing key of a hash for the current hour, used to order peers by distance to a key
+     * @param key Hash of record
+     * @return Routing key of hash
+     */
+    RoutingKey routingKeyOf(byte[] key) {
+        return currentTable().routingKey(key);
+    }
+
+    /**
+     * Retrieve up to {@code k} closest RouterInfo records to the given key from the routing table.
+     * Only RouterInfos will be returned, LeaseSets are ignored.
+     *
+     * @param key the 32-byte SHA256 hash key to find close routers for
+     * @param k the maximum number of RouterInfos to return
+     * @return a list of up to {@code k} closest RouterInfo Records, closest first
+     *
+     * @deprecated Since 5/1/2025 use {@link #getKClosestRouters(byte[], int)}
+     */
+    public ArrayList<RouterInfo> getKClosestRouterInfos(byte[] key, int k) {
+        return getKClosestRouters(key, k);
+    }
 
-        // Return the list of RouterInfo records found
+    /**
+     * Retrieve up to {@code k} closest routers to a key by XOR distance of routing keys, LeaseSets are ignored
+     *
+     * @param key 32-byte SHA-256 hash whose neighbouring routers we want
+     * @param k maximum number of RouterInfos to return
+     * @return up to {@code k} closest RouterInfos, closest first
+     */
+    public ArrayList<RouterInfo> getKClosestRouters(byte[] key, int k) {
+        ArrayList<RouterInfo> result = new ArrayList<>(Math.max(k, 0));
+        for (Record record : kClosest(key, k, true))
+            result.add((RouterInfo) record);
         return result;
     }
+
     /**
      * Retrieve up to {@code k} closest records (either {@link RouterInfo} or
-     * {@link LeaseSet}) to the supplied key, using the same XOR-metric walk that
-     * Kademlia employs.
+     * {@link LeaseSet}) to the supplied key by XOR distance of routing keys
      *
      * @param key 32-byte SHA-256 hash whose neighbours we want
      * @param k   maximum number of records to return
      * @return a list (≤ k) of the closest {@code Record}s in distance order
-     *
-     * @author ChatGPT (OpenAI Assistant)
      */
-    public synchronized ArrayList<Record> getKClosestPeers(byte[] key, int k) {
-        ArrayList<Record> result = new ArrayList<>(k);
-        byte[] routingKey = computeRoutingKey(key);
-
-        int startDistance = calculateXORMetric(rootRoutingKey, routingKey);
-        int lower  = startDistance;      // search downward
-        int higher = startDistance + 1;  // and upward
-
-        while (result.size() < k && (lower >= 0 || higher <= 255)) {
-
-            /* --- lower bucket ------------------------------------------------ */
-            if (lower >= 0) {
-                HashMap<String, Record> bucket = routingTable.get(lower);
-                if (bucket != null) {
-                    for (Record record : bucket.values()) {
-                        result.add(record);               // RouterInfo or LeaseSet
-                        if (result.size() >= k) break;
-                    }
-                }
-                lower--;
-            }
+    public ArrayList<Record> getKClosestPeers(byte[] key, int k) {
+        return kClosest(key, k, false);
+    }
 
-            /* --- higher bucket ----------------------------------------------- */
-            if (higher <= 255) {
-                HashMap<String, Record> bucket = routingTable.get(higher);
-                if (bucket != null) {
-                    for (Record record : bucket.values()) {
-                        result.add(record);
-                        if (result.size() >= k) break;
-                    }
-                }
-                higher++;
-            }
+    /**
+     * Find the {@code k} records closest to a key by full XOR distance of routing keys
+     *
+     * <p>Buckets are indexed by common prefix with our root key. If target lands in bucket {@code bt} then records in
+     * {@code bt} are closest to it, all buckets above {@code bt} are next (they share exactly {@code bt} bits with
+     * target), then buckets below {@code bt} in descending order. Every record of a group is closer than any record of
+     * a later group, so once we have {@code k} records no later bucket can beat them and we stop.</p>
+     *
+     * @param key 32-byte SHA-256 hash whose neighbours we want
+     * @param k maximum number of records to return
+     * @param routerInfoOnly only return RouterInfos
+     * @return up to {@code k} closest records, closest first
+     */
+    private ArrayList<Record> kClosest(byte[] key, int k, boolean routerInfoOnly) {
+        if (k <= 0)
+            return new ArrayList<>();
+
+        RoutingTable table = currentTable();
+        RoutingKey target = table.routingKey(key);
+        int targetBucket = table.rootRoutingKey.bucketDistance(target);
+
+        //max heap on distance, farthest candidate is at head so it can be replaced by a closer one
+        Comparator<Candidate> closestFirst = (a, b) -> target.compareDistance(a.routingKey, b.routingKey);
+        PriorityQueue<Candidate> heap = new PriorityQueue<>(k + 1, closestFirst.reversed());
+
+        //group 1 - target's own bucket
+        offerBucket(table, targetBucket, heap, k, routerInfoOnly);
+        //group 2 - every bucket closer to us than target, all share the same prefix with target
+        if (heap.size() < k) {
+            for (int bucket = targetBucket + 1; bucket < 256; bucket++)
+                offerBucket(table, bucket, heap, k, routerInfoOnly);
         }
+        //group 3 - buckets farther from us, each is farther from target than the last
+        for (int bucket = targetBucket - 1; bucket >= 0 && heap.size() < k; bucket--)
+            offerBucket(table, bucket, heap, k, routerInfoOnly);
+
+        ArrayList<Candidate> sorted = new ArrayList<>(heap);
+        sorted.sort(closestFirst);
+        ArrayList<Record> result = new ArrayList<>(sorted.size());
+        for (Candidate candidate : sorted)
+            result.add(candidate.record);
         return result;
     }
 
     /**
-     * Computer routing key H(H(record) + time up to hour UTC) this is to make Sybil attacks more expensive
-     * @param key of Record to compute routing key for
-     * @return Bytes of routing key
+     * Offer every record of a bucket to a bounded heap of the k closest records
      */
-    private synchronized byte[] computeRoutingKey(byte[] key) {
+    private void offerBucket(RoutingTable table, int bucketIndex, PriorityQueue<Candidate> heap, int k,
+                             boolean routerInfoOnly) {
+        KBucket bucket = table.buckets.get(bucketIndex);
+        if (bucket == null)
+            return;
+
+        //records in replacement cache are not routed through until they are promoted
+        for (Record record : bucket.records()) {
+            if (routerInfoOnly && record.getRecordType() != Record.RecordType.ROUTERINFO)
+                continue;
+            heap.offer(new Candidate(table.routingKey(record.getHash()), record));
+            if (heap.size() > k)
+                heap.poll(); //drop farthest
+        }
+    }
+
+    /**
+     * Get routing table for the current hour, rotating keys if it is a new hour
+     * @return Current routing table
+     */
+    private RoutingTable currentTable() {
+        rotateIfNeeded();
+        return routingTable;
+    }
+
+    /**
+     * Rotate routing keys if it is a new hour, routing key is H(H(record) + time up to hour UTC) this is to make
+     * Sybil attacks more expensive
+     *
+     * <p>Swaps in the table prepared by {@link #prepareNextTable(long)} which is O(1), the table is only rebuilt here
+     * if it was not prepared in time.</p>
+     */
+    private void rotateIfNeeded() {
         //add record to bucket under its RoutingKey which is the hash of the record with date up to hour appeneded
         //this is to prevent a sybil attack by doing a partial rotation of the keyspace every hour(every day in I2P)
-        //chatGPT generated date formatting
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("yyyyMMddHH");
-
-        String currHour = Instant.now()                // current moment
-                .truncatedTo(ChronoUnit.HOURS)  // drop mins/sec/nanos
-                .atZone(ZoneOffset.UTC)         // view in UTC
-                .format(fmt);                   // format as yyyyMMddHH
-
-        /* --- parse as UTC ZonedDateTime ---------------------------------------- */
-        ZonedDateTime prev = LocalDateTime.parse(lastHour, fmt).atZone(ZoneOffset.UTC);
-        ZonedDateTime curr = LocalDateTime.parse(currHour, fmt).atZone(ZoneOffset.UTC);
-
-        rootRoutingKey = computeHashOfKey(routerInfo.getHash(), currHour);
-        //rotate routing keys if it is a new hours
-        if (!curr.isBefore(prev.plusHours(1))) {
-            log.debug("Last hour: " + lastHour + " currHour: " + currHour);
+        //cheap check of hours since epoch, keys are only recomputed at hour boundary
+        long currHour = currentEpochHour();
+        if (currHour <= routingTable.epochHour)
+            return;
+
+        rotationLock.writeLock().lock();
+        try {
+            RoutingTable oldTable = routingTable;
+            if (currHour <= oldTable.epochHour)
+                return; //another thread already rotated
+
+            RoutingTable newTable = nextTable;
+            if (newTable == null || newTable.epochHour != currHour || !newTable.prepared) {
+                log.warn("NetDB: Next hour's table was not prepared in time, rebuilding now");
+                newTable = new RoutingTable(currHour, routerInfo.getHash(), bucketCapacity);
+                copyEntries(oldTable, newTable);
+            }
+            log.debug("Last hour: " + oldTable.hour + " currHour: " + newTable.hour);
             log.info("Next hour, Rotating NetDB keys");
 
-            HashMap<Integer, HashMap<String, Record>> newRoutingTable = new HashMap<>();
-            for (HashMap<String, Record> bucket : routingTable.values()) {
-                for (Record record : bucket.values()) {
-                    byte[] routingKey = computeHashOfKey(record.getHash(), currHour);
-                    //calculate distance between hash and record hash
-                    int distance = calculateXORMetric(rootRoutingKey, routingKey);
-
-                    //get bucket at distance
-                    HashMap<String, Record> newBucket = newRoutingTable.computeIfAbsent(distance, k -> new HashMap<>());
-                    newBucket.put(Base64.toBase64String(routingKey), record);
-                }
+            //readers using old table see a consistent old hour until they finish
+            routingTable = newTable;
+            nextTable = null;
+            if (log.isEnabled(Logger.Level.DEBUG)) {
+                log.debug("new netDB " + logNetDB());
+                log.debug("NetDB bucket occupancy " + Arrays.toString(getBucketOccupancy()));
             }
-            routingTable = newRoutingTable;
-            lastHour = currHour;
-            log.debug("new netDB " + logNetDB());
+        } finally {
+            rotationLock.writeLock().unlock();
         }
+    }
 
-        return computeHashOfKey(key, lastHour);
+    /**
+     * Schedule building next hour's table ahead of the hour boundary and swapping it in at the boundary
+     */
+    private void scheduleRotation() {
+        long nextHour = currentEpochHour() + 1;
+        long untilBoundary = nextHour * MILLIS_PER_HOUR - System.currentTimeMillis();
+
+        maintenanceExecutor.schedule(() -> prepareNextTable(nextHour),
+                Math.max(0, untilBoundary - ROTATION_LEAD_MILLIS), TimeUnit.MILLISECONDS);
+        maintenanceExecutor.schedule(() -> {
+            try {
+                rotateIfNeeded();
+            } catch (RuntimeException e) {
+                log.error("NetDB: Could not rotate keys", e);
+            } finally {
+                //if we woke up slightly early this schedules the same boundary again which is safe
+                scheduleRotation();
+            }
+        }, untilBoundary, TimeUnit.MILLISECONDS);
     }
 
-    private byte[] computeHashOfKey(byte[] key, String time) {
+    /**
+     * Build the routing table for the next hour in the background, stores made while it is built are written to it
+     * as well so it is complete when swapped in
+     * @param epochHour Hours since epoch of next table
+     */
+    private void prepareNextTable(long epochHour) {
         try {
-            //hash payload of message
-            MessageDigest md = MessageDigest.getInstance("SHA256");
-            md.update(key);
-            md.update(time.getBytes(StandardCharsets.UTF_8));
-            return md.digest();
+            RoutingTable current = routingTable;
+            RoutingTable next = nextTable;
+            if (epochHour <= current.epochHour || (next != null && next.epochHour == epochHour))
+                return; //already rotated or prepared
+
+            next = new RoutingTable(epochHour, routerInfo.getHash(), bucketCapacity);
+            //publish before copying so a store during the copy is written to both tables
+            nextTable = next;
+            copyEntries(current, next);
+            next.prepared = true;
+            log.debug("NetDB: Prepared routing table for " + next.hour);
+        } catch (RuntimeException e) {
+            log.error("NetDB: Could not prepare next routing table", e);
         }
-        catch (NoSuchAlgorithmException ex) {throw new RuntimeException(ex);} //should not hit this case
     }
 
     /**
-     * Calculate closeness as from XOR metric of keys we xor keys, they are close if result have many leading zeroes -
-     * hashes are similar
-     * @param key1 32 byte SHA256 hash to compare
-     * @param key2 32 byte SHA256 hash to compare
-     * @return 0-255 of closeness
+     * Move every record of a table into a table for another hour keeping the liveness of peers
+     * @param from Table to copy
+     * @param to Table to copy into, records already in it are kept
      */
-    private int calculateXORMetric(byte[] key1, byte[] key2) {
-        BitSet bits1 = BitSet.valueOf(key1);
-        BitSet bits2 = BitSet.valueOf(key2);
+    private static void copyEntries(RoutingTable from, RoutingTable to) {
+        //move bucket entries before replacements so peers we route through keep their place
+        for (KBucket bucket : from.buckets.values()) {
+            for (KBucket.Entry entry : bucket.entries())
+                to.adopt(entry, false);
+        }
+        for (KBucket bucket : from.buckets.values()) {
+            for (KBucket.Entry entry : bucket.replacementEntries())
+                to.adopt(entry, true);
+            for (KBucket.Entry entry : bucket.leaseSetEntries())
+                to.adopt(entry, false);
+        }
+    }
 
-        bits1.xor(bits2);
+    /**
+     * Get current hour
+     * @return Hours since epoch
+     */
+    private static long currentEpochHour() {
+        return System.currentTimeMillis() / MILLIS_PER_HOUR;
+    }
 
-        //not sure which we should use - in my previous project we used commented out version
-        //return 256 - bits1.length();
-        return 256 - bits1.length(); //take length to find leading zeros after xor
+    private static byte[] computeHashOfKey(byte[] key, byte[] time) {
+        //hash payload of message
+        MessageDigest md = SHA256.get();
+        md.update(key);
+        md.update(time);
+        return md.digest();
     }
 
     /**
@@ -310,25 +829,29 @@ public class NetDB {
      */
     public String logNetDB() {
         StringBuilder out = new StringBuilder();
+        RoutingTable table = routingTable;
 
         // Buckets are numbered 0-256 (inclusive).  Highest first for readability.
         for (int idx = 256; idx >= 0; idx--) {
-            HashMap<String, Record> bucket = routingTable.get(idx);
+            KBucket bucket = table.buckets.get(idx);
             if (bucket == null || bucket.isEmpty()) {
                 continue;                                 // skip empty buckets
             }
 
-            out.append(String.format("%n--- Bucket %-3d (size %d) %s%n",
+            out.append(String.format("%n--- Bucket %-3d (size %d, replacements %d) %s%n",
                     idx,
                     bucket.size(),
+                    bucket.replacementSize(),
                     "─".repeat(40)));
 
-            /* iterate over both key and value so we can inspect the Record */
-            bucket.entrySet()
+            /* key each record by its routing key so we can inspect the Record */
+            bucket.records()
                     .stream()
+                    .map(record -> Map.entry(
+                            Base64.toBase64String(table.routingKey(record.getHash()).toBytes()), record))
                     .sorted(Map.Entry.comparingByKey())     // alphabetical, stable
                     .forEach(entry -> {
-                        String key    = entry.getKey();     // Base64(hash)
+                        String key    = entry.getKey();     // Base64(routing key)
                         Record record = entry.getValue();
 
                         if (record.getRecordType() == Record.RecordType.ROUTERINFO) {
@@ -344,4 +867,118 @@ public class NetDB {
         }
         return out.toString();
     }
+
+    /**
+     * Routing table for a single hour, records are stored under routing keys computed with {@link #hour}
+     */
+    private static final class RoutingTable {
+        /**
+         * Hours since epoch of this table
+         */
+        private final long epochHour;
+        /**
+         * Hour routing keys are computed with formatted as yyyyMMddHH
+         */
+        private final String hour;
+        /**
+         * UTF-8 bytes of {@link #hour}
+         */
+        private final byte[] hourBytes;
+        /**
+         * Routing key of this router for {@link #hour}
+         */
+        private final RoutingKey rootRoutingKey;
+        /**
+         * RoutingTable has 256 buckets(32 byte sha256 hash) each bucket has an entry keyed under the routing key of that
+         * entry with a corresponding record to that hash(RouterInfo or LeaseSet)
+         */
+        private final ConcurrentHashMap<Integer, KBucket> buckets = new ConcurrentHashMap<>();
+        /**
+         * Routing keys already computed this hour keyed under hash of record
+         */
+        private final ConcurrentHashMap<RoutingKey, RoutingKey> routingKeys = new ConcurrentHashMap<>();
+        /**
+         * Max number of records in each bucket
+         */
+        private final int bucketCapacity;
+        /**
+         * True once every record of the previous table has been copied into this table
+         */
+        private volatile boolean prepared;
+
+        /**
+         * Create empty routing table
+         * @param epochHour Hours since epoch routing keys are computed with
+         * @param ourHash Hash of this router
+         * @param bucketCapacity Max number of records in each bucket
+         */
+        private RoutingTable(long epochHour, byte[] ourHash, int bucketCapacity) {
+            this.epochHour = epochHour;
+            this.bucketCapacity = bucketCapacity;
+            //chatGPT generated date formatting
+            this.hour = Instant.ofEpochMilli(epochHour * MILLIS_PER_HOUR)
+                    .atZone(ZoneOffset.UTC)         // view in UTC
+                    .format(HOUR_FORMAT);           // format as yyyyMMddHH
+            this.hourBytes = hour.getBytes(StandardCharsets.UTF_8);
+            this.rootRoutingKey = RoutingKey.fromBytes(computeHashOfKey(ourHash, hourBytes));
+        }
+
+        /**
+         * Compute routing key for this table's hour, routing keys are cached until the hour ends
+         * @param key Hash of record
+         * @return Routing key of record
+         */
+        private RoutingKey routingKey(byte[] key) {
+            if (key.length != RoutingKey.LENGTH) //not a hash of a record so it will not be looked up again
+                return RoutingKey.fromBytes(computeHashOfKey(key, hourBytes));
+
+            RoutingKey cacheKey = RoutingKey.fromBytes(key);
+            RoutingKey routingKey = routingKeys.get(cacheKey);
+            if (routingKey != null)
+                return routingKey;
+
+            routingKey = RoutingKey.fromBytes(computeHashOfKey(key, hourBytes));
+            //bound memory, cache is rebuilt from keys in use
+            if (routingKeys.size() >= MAX_CACHED_ROUTING_KEYS)
+                routingKeys.clear();
+            routingKeys.put(cacheKey, routingKey);
+            return routingKey;
+        }
+
+        /**
+         * Put record in bucket at its distance from our routing key
+         * @param distance Bucket of record
+         * @param routingKey Routing key of record
+         * @param record Record to put
+         * @return Where record was placed in bucket
+         */
+        private KBucket.Placement put(int distance, RoutingKey routingKey, Record record) {
+            return buckets.computeIfAbsent(distance, k -> new KBucket(bucketCapacity))
+                    .put(routingKey, record, System.currentTimeMillis());
+        }
+
+        /**
+         * Move an entry from the previous hour's table into this table keeping its liveness
+         * @param entry Entry of old table
+         * @param replacement True if entry was in a replacement cache
+         */
+        private void adopt(KBucket.Entry entry, boolean replacement) {
+            RoutingKey routingKey = routingKey(entry.getRecord().getHash());
+            buckets.computeIfAbsent(rootRoutingKey.bucketDistance(routingKey), k -> new KBucket(bucketCapacity))
+                    .adopt(routingKey, entry, replacement);
+        }
+    }
+
+    /**
+     * Record with its routing key for ranking by distance
+     */
+    private static final class Candidate {
+        private final RoutingKey routingKey;
+        private final Record record;
+
+        private Candidate(RoutingKey routingKey, Record record) {
+            this.routingKey = routingKey;
+            this.record = record;
+        }
+    }
 }
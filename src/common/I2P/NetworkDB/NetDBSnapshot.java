@@ -0,0 +1,212 @@
+package common.I2P.NetworkDB;
+
+import common.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary snapshot of NetDB records on disk so a restarted router does not start with an empty NetDB
+ *
+ * <p>Records are appended to a single segment file as they are stored, a record stored again is appended again and
+ * the newest copy wins when loading. Once the file holds more stale copies than live records it is compacted by
+ * writing every live record to a temporary file and atomically moving it over the segment.</p>
+ *
+ * @implNote file starts with {@link #MAGIC} and {@link #VERSION}, each record is a type byte, a 4 byte length and the
+ * binary encoding of the record. A record cut off by a crash ends the file, every record before it is still loaded.
+ */
+public class NetDBSnapshot {
+    /**
+     * First bytes of a snapshot file "NDBS"
+     */
+    private static final int MAGIC = 0x4E444253;
+    /**
+     * Version of snapshot format
+     */
+    private static final byte VERSION = 1;
+    /**
+     * Length of file header
+     */
+    private static final int HEADER_LENGTH = 5;
+    /**
+     * Type byte of RouterInfo records, matches store type of DatabaseStore
+     */
+    private static final byte TYPE_ROUTERINFO = 0;
+    /**
+     * Type byte of LeaseSet records, matches store type of DatabaseStore
+     */
+    private static final byte TYPE_LEASESET = 1;
+    /**
+     * Records appended before compaction is worth it even for a small NetDB
+     */
+    private static final int MIN_APPENDS_BEFORE_COMPACTION = 64;
+
+    /**
+     * Segment file records are written to
+     */
+    private final Path file;
+    /**
+     * Max age of file in milliseconds for it to be considered fresh
+     */
+    private final long maxAgeMillis;
+    /**
+     * Records appended since file was last compacted
+     */
+    private int appendedSinceCompaction;
+    /**
+     * Logger
+     */
+    private final Logger log = Logger.getInstance();
+
+    /**
+     * Create snapshot backed by a file, the file is created on first write
+     * @param file Segment file of snapshot
+     * @param maxAgeMillis Max milliseconds since snapshot was last written for it to be considered fresh
+     */
+    public NetDBSnapshot(Path file, long maxAgeMillis) {
+        this.file = file;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Check if snapshot was written recently enough that its peers are likely still online
+     * @return true if snapshot exists and was written within max age
+     */
+    public boolean isFresh() {
+        try {
+            return Files.exists(file)
+                    && System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() <= maxAgeMillis;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Load records in snapshot, signatures are not checked here they are checked when stored in NetDB
+     * @return Records of snapshot in order they were written, empty if there is no snapshot or it is stale
+     */
+    public List<Record> load() {
+        ArrayList<Record> records = new ArrayList<>();
+        if (!isFresh())
+            return records;
+
+        ByteBuffer buf;
+        try {
+            buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        } catch (IOException e) {
+            log.warn("NetDBSnapshot: Could not read " + file, e);
+            return records;
+        }
+
+        try {
+            if (buf.getInt() != MAGIC || buf.get() != VERSION) {
+                log.warn("NetDBSnapshot: " + file + " is not a snapshot ignoring it");
+                return records;
+            }
+            while (buf.hasRemaining()) {
+                byte type = buf.get();
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining())
+                    throw new BufferUnderflowException();
+
+                ByteBuffer recordBuf = buf.slice(buf.position(), length);
+                buf.position(buf.position() + length);
+                switch (type) {
+                    case TYPE_ROUTERINFO -> records.add(new RouterInfo(recordBuf));
+                    case TYPE_LEASESET -> records.add(new LeaseSet(recordBuf));
+                    default -> throw new InvalidObjectException("Unknown record type " + type);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            log.warn("NetDBSnapshot: " + file + " ends with a partial record, loaded " + records.size() + " records");
+        } catch (InvalidObjectException e) {
+            log.warn("NetDBSnapshot: Stopped reading " + file + " at bad record, loaded " + records.size()
+                    + " records", e);
+        }
+        return records;
+    }
+
+    /**
+     * Append records to the end of the snapshot
+     * @param records Records to append
+     * @throws IOException if records could not be written
+     */
+    public void append(Collection<Record> records) throws IOException {
+        if (records.isEmpty())
+            return;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(encode(records, channel.size() == 0)));
+        }
+        appendedSinceCompaction += records.size();
+    }
+
+    /**
+     * Check if snapshot has grown enough since last compaction that it should be rewritten
+     * @param liveRecords Number of records in NetDB
+     * @return true if snapshot should be compacted
+     */
+    public boolean needsCompaction(int liveRecords) {
+        return appendedSinceCompaction >= Math.max(MIN_APPENDS_BEFORE_COMPACTION, liveRecords);
+    }
+
+    /**
+     * Replace snapshot with only the given records, readers see either the old or new file never a partial one
+     * @param records Every live record
+     * @throws IOException if snapshot could not be written
+     */
+    public void compact(Collection<Record> records) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, encode(records, true));
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        appendedSinceCompaction = 0;
+    }
+
+    /**
+     * Encode records in snapshot format
+     * @param records Records to encode
+     * @param header True to start with file header
+     * @return bytes to write
+     * @throws IOException if a record could not be encoded
+     */
+    private static byte[] encode(Collection<Record> records, boolean header) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_LENGTH + records.size() * 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (header) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(1024);
+        DataOutputStream recordOut = new DataOutputStream(recordBytes);
+        for (Record record : records) {
+            recordBytes.reset();
+            record.writeBinary(recordOut);
+            recordOut.flush();
+
+            out.writeByte(record.getRecordType() == Record.RecordType.ROUTERINFO ? TYPE_ROUTERINFO : TYPE_LEASESET);
+            out.writeInt(recordBytes.size());
+            recordBytes.writeTo(out);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
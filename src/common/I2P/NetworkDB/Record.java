@@ -1,5 +1,6 @@
 package common.I2P.NetworkDB;
 
+import common.transport.BinarySerializable;
 import merrimackutil.json.JSONSerializable;
 
 import java.security.PublicKey;
@@ -7,7 +8,7 @@ import java.security.PublicKey;
 /**
  * Records are entires that can be stored in netDB
  */
-public abstract class Record implements JSONSerializable {
+public abstract class Record implements JSONSerializable, BinarySerializable {
     /**
      * Type of record {@code LEASESET or ROUTERINFO}
      * @apiNote made to help with casting
@@ -50,4 +51,10 @@ public abstract class Record implements JSONSerializable {
      * @return true if signature is valid false otherwise
      */
     public abstract boolean verifySignature();
+
+    /**
+     * Get time this record was published, a newer copy of a record replaces an older one in NetDB
+     * @return Publish time in epoch time
+     */
+    public abstract long getPublished();
 }
@@ -1,11 +1,14 @@
 package common.I2P.NetworkDB;
 
 import common.I2P.IDs.RouterID;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JSONSerializable;
 import merrimackutil.json.types.JSONObject;
 import merrimackutil.json.types.JSONType;
 import org.bouncycastle.util.encoders.Base64;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
@@ -55,8 +58,8 @@ public class RouterInfo extends Record implements JSONSerializable {
             Signature signing = Signature.getInstance("Ed25519");
             signing.initSign(signingKey);
             //sign this RouterInfo
-            signing.update(routerID.getElgamalPublicKey().getEncoded());
-            signing.update(routerID.getSigningPublicKey().getEncoded());
+            signing.update(routerID.getEncodedElgamalPublicKey());
+            signing.update(routerID.getEncodedSigningPublicKey());
             signing.update(ByteBuffer.allocate(Long.BYTES).putLong(date).array());
             signing.update(host.getBytes(StandardCharsets.UTF_8));
             signing.update(ByteBuffer.allocate(Integer.BYTES).putInt(port).array());
@@ -79,6 +82,16 @@ public class RouterInfo extends Record implements JSONSerializable {
         deserialize(json);
     }
 
+    /**
+     * Create RouterInfo from binary
+     * @param buf buffer to read RouterInfo from
+     * @throws InvalidObjectException throws if bytes are invalid
+     */
+    public RouterInfo(ByteBuffer buf) throws InvalidObjectException {
+        super(RecordType.ROUTERINFO);
+        readFields(buf);
+    }
+
     @Override
     public byte[] getHash() {
         return routerID.getHash();
@@ -95,8 +108,8 @@ public class RouterInfo extends Record implements JSONSerializable {
             Signature signing = Signature.getInstance("Ed25519");
             signing.initVerify(routerID.getSigningPublicKey());
             //update signature in same order we created signature
-            signing.update(routerID.getElgamalPublicKey().getEncoded());
-            signing.update(routerID.getSigningPublicKey().getEncoded());
+            signing.update(routerID.getEncodedElgamalPublicKey());
+            signing.update(routerID.getEncodedSigningPublicKey());
             signing.update(ByteBuffer.allocate(Long.BYTES).putLong(date).array());
             signing.update(routerAddress.host.getBytes(StandardCharsets.UTF_8));
             signing.update(ByteBuffer.allocate(Integer.BYTES).putInt(routerAddress.port).array());
@@ -138,6 +151,32 @@ public class RouterInfo extends Record implements JSONSerializable {
         return json;
     }
 
+    @Override
+    public void writeBinary(DataOutputStream out) throws IOException {
+        routerID.writeBinary(out);
+        out.writeLong(date);
+        I2NPCodec.writeString(out, routerAddress.host);
+        out.writeInt(routerAddress.port);
+        I2NPCodec.writeBytes(out, signature);
+    }
+
+    @Override
+    public void readBinary(ByteBuffer buf) throws InvalidObjectException {
+        readFields(buf);
+    }
+
+    private void readFields(ByteBuffer buf) throws InvalidObjectException {
+        routerID = new RouterID(buf);
+        date = buf.getLong();
+        String host = I2NPCodec.readString(buf);
+        if (host == null)
+            throw new InvalidObjectException("Missing host for RouterAddress");
+        routerAddress = new RouterAddress(host, buf.getInt());
+        signature = I2NPCodec.readBytes(buf);
+        if (signature == null)
+            throw new InvalidObjectException("Missing signature");
+    }
+
     public RouterID getRouterID() {
         return routerID;
     }
@@ -150,6 +189,15 @@ public class RouterInfo extends Record implements JSONSerializable {
         return date;
     }
 
+    /**
+     * Get time this RouterInfo was published
+     * @return {@link #getDate()}
+     */
+    @Override
+    public long getPublished() {
+        return date;
+    }
+
     public int getPort() {
         return routerAddress.port;
     }
@@ -0,0 +1,141 @@
+package common.I2P.NetworkDB;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+
+/**
+ * 32 byte routing key held as four 64-bit words so XOR distances can be computed without allocating
+ *
+ * <p>Keys are read as little-endian 256-bit numbers, byte 31 is the most significant byte. This matches the bit order
+ * of {@link java.util.BitSet#valueOf(byte[])} which NetDB buckets were originally computed with, so records land in
+ * the same buckets as before.</p>
+ *
+ * <p>Keys are immutable with a constant time hash code so they are used directly as map keys for records and
+ * pending lookups, no key is encoded to a String on the lookup path. Keys are ordered as unsigned 256-bit numbers so
+ * colliding keys in a hash map bin are kept in a tree.</p>
+ */
+public final class RoutingKey implements Comparable<RoutingKey> {
+    /**
+     * Length of routing key in bytes
+     */
+    public static final int LENGTH = 32;
+
+    /**
+     * Words of key, w3 is most significant
+     */
+    private final long w0, w1, w2, w3;
+
+    private RoutingKey(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    /**
+     * Create routing key from bytes
+     * @param key 32 byte key, usually a SHA256 hash
+     * @return RoutingKey with value of bytes
+     */
+    public static RoutingKey fromBytes(byte[] key) {
+        if (key.length != LENGTH)
+            throw new IllegalArgumentException("Routing key must be " + LENGTH + " bytes but was " + key.length);
+
+        ByteBuffer buf = ByteBuffer.wrap(key).order(ByteOrder.LITTLE_ENDIAN);
+        return new RoutingKey(buf.getLong(0), buf.getLong(8), buf.getLong(16), buf.getLong(24));
+    }
+
+    /**
+     * Get bytes of this key
+     * @return new 32 byte array of key
+     */
+    public byte[] toBytes() {
+        return ByteBuffer.allocate(LENGTH).order(ByteOrder.LITTLE_ENDIAN)
+                .putLong(w0).putLong(w1).putLong(w2).putLong(w3)
+                .array();
+    }
+
+    /**
+     * Calculate closeness from XOR metric of keys, they are close if result of XOR has many leading zeroes
+     * @param other Key to compare to
+     * @return 0-256 number of leading zero bits of XOR, 256 if keys are equal
+     */
+    public int bucketDistance(RoutingKey other) {
+        long x = w3 ^ other.w3;
+        if (x != 0)
+            return Long.numberOfLeadingZeros(x);
+        x = w2 ^ other.w2;
+        if (x != 0)
+            return 64 + Long.numberOfLeadingZeros(x);
+        x = w1 ^ other.w1;
+        if (x != 0)
+            return 128 + Long.numberOfLeadingZeros(x);
+        return 192 + Long.numberOfLeadingZeros(w0 ^ other.w0);
+    }
+
+    /**
+     * Compare which of two keys is closer to this key by full 256-bit XOR distance
+     * @param a First key
+     * @param b Second key
+     * @return negative if {@code a} is closer, positive if {@code b} is closer, 0 if they are the same key
+     */
+    public int compareDistance(RoutingKey a, RoutingKey b) {
+        int cmp = Long.compareUnsigned(w3 ^ a.w3, w3 ^ b.w3);
+        if (cmp != 0)
+            return cmp;
+        cmp = Long.compareUnsigned(w2 ^ a.w2, w2 ^ b.w2);
+        if (cmp != 0)
+            return cmp;
+        cmp = Long.compareUnsigned(w1 ^ a.w1, w1 ^ b.w1);
+        if (cmp != 0)
+            return cmp;
+        return Long.compareUnsigned(w0 ^ a.w0, w0 ^ b.w0);
+    }
+
+    /**
+     * Get comparator ordering keys by XOR distance to this key, closest first
+     * @return Comparator by distance to this key
+     */
+    public Comparator<RoutingKey> closestFirst() {
+        return this::compareDistance;
+    }
+
+    /**
+     * Compare keys as unsigned 256-bit numbers
+     * @param other Key to compare to
+     * @return negative if this key is smaller, positive if it is larger, 0 if keys are equal
+     */
+    @Override
+    public int compareTo(RoutingKey other) {
+        int cmp = Long.compareUnsigned(w3, other.w3);
+        if (cmp != 0)
+            return cmp;
+        cmp = Long.compareUnsigned(w2, other.w2);
+        if (cmp != 0)
+            return cmp;
+        cmp = Long.compareUnsigned(w1, other.w1);
+        if (cmp != 0)
+            return cmp;
+        return Long.compareUnsigned(w0, other.w0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RoutingKey other))
+            return false;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        //mix every word so keys sharing a word, which anyone can craft, do not all collide
+        long h = w0;
+        h = 31 * h + w1;
+        h = 31 * h + w2;
+        h = 31 * h + w3;
+        return Long.hashCode(h);
+    }
+}
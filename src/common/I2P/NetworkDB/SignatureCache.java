@@ -0,0 +1,112 @@
+package common.I2P.NetworkDB;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache of signature verification results so a record stored again is not verified again
+ *
+ * <p>Results are keyed under the SHA256 of the record's binary encoding which covers every signed field and the
+ * signature, so a record only hits the cache if it is byte for byte the record that was verified. Both valid and
+ * invalid results are cached.</p>
+ */
+class SignatureCache {
+    /**
+     * SHA256 digest for each thread
+     */
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException(ex); //should not hit this case
+        }
+    });
+
+    /**
+     * Max number of results cached
+     */
+    private final int capacity;
+    /**
+     * Verification results keyed under digest of record
+     */
+    private final ConcurrentHashMap<RoutingKey, Boolean> results = new ConcurrentHashMap<>();
+    /**
+     * Number of verifications answered from cache
+     */
+    private final AtomicLong hits = new AtomicLong();
+    /**
+     * Number of verifications which had to check the signature
+     */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Create empty cache
+     * @param capacity Max number of results cached
+     */
+    SignatureCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Verify signature of record, using the cached result if this exact record was verified before
+     * @param record Record to verify
+     * @return true if signature is valid
+     */
+    boolean verify(Record record) {
+        RoutingKey digest;
+        try {
+            digest = digestOf(record);
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return record.verifySignature(); //should not hit this case, record could not be encoded
+        }
+
+        Boolean cached = results.get(digest);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+
+        misses.incrementAndGet();
+        boolean valid = record.verifySignature();
+        //bound memory, cache is rebuilt from records still being stored
+        if (results.size() >= capacity)
+            results.clear();
+        results.put(digest, valid);
+        return valid;
+    }
+
+    /**
+     * @return Number of verifications answered from cache
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of verifications which had to check the signature
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Hash binary encoding of record
+     * @param record Record to hash
+     * @return SHA256 of record as a map key
+     * @throws IOException if record could not be encoded
+     */
+    private static RoutingKey digestOf(Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        record.writeBinary(new DataOutputStream(bytes));
+        MessageDigest md = SHA256.get();
+        //record type is not in its encoding
+        md.update((byte) record.getRecordType().ordinal());
+        return RoutingKey.fromBytes(md.digest(bytes.toByteArray()));
+    }
+}
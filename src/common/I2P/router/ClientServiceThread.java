@@ -6,9 +6,10 @@ import common.I2P.NetworkDB.Record;
 import common.I2P.NetworkDB.*;
 import common.I2P.tunnels.Tunnel;
 import common.I2P.tunnels.TunnelManager;
+import common.I2P.tunnels.TunnelPool;
 import common.Logger;
 import common.transport.I2CP.*;
-import common.transport.I2NPSocket;
+import common.transport.OutboundTransport;
 import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONObject;
 import org.bouncycastle.util.encoders.Base64;
@@ -23,7 +24,6 @@ import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
@@ -33,9 +33,13 @@ import static common.transport.I2CP.I2CPMessageTypes.*;
 
 public class ClientServiceThread implements Runnable {
     /**
-     * Socket for router communications
+     * Milliseconds a new session waits for an inbound tunnel if the tunnel pool has none ready
      */
-    private I2NPSocket routerSock;
+    private static final long TUNNEL_WAIT_MILLIS = 5000;
+    /**
+     * Transport for router communications, shared with the rest of the router
+     */
+    private OutboundTransport transport;
     /**
      * Router this thread is a apart of
      */
@@ -65,6 +69,14 @@ public class ClientServiceThread implements Runnable {
      * Network database
      */
     private NetDB netDB;
+    /**
+     * Lookup engine for finding destinations we do not have
+     */
+    private LookupEngine lookupEngine;
+    /**
+     * Pool of tunnels built ahead of time for sessions
+     */
+    private TunnelPool tunnelPool;
 
     /**
      * Create new thread to service incoming AudioStreaming.client connects
@@ -73,16 +85,22 @@ public class ClientServiceThread implements Runnable {
      * @param netDB          network database for this router
      * @param port           Port for clients to connect on
      * @param clientMessages Queue of messages from AudioStreaming.client
-     * @throws IOException if could not create ServerSocket or I2NPSocket
+     * @param transport      Transport for sending I2NP messages to routers
+     * @param lookupEngine   Lookup engine for finding destinations we do not have
+     * @param tunnelPool     Pool of tunnels given to sessions
+     * @throws IOException if could not create ServerSocket
      */
     public ClientServiceThread(RouterInfo router, TunnelManager tunnelManager, NetDB netDB, int port,
-            ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> clientMessages) throws IOException {
+            ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> clientMessages,
+            OutboundTransport transport, LookupEngine lookupEngine, TunnelPool tunnelPool) throws IOException {
         this.router = router;
         this.tunnelManager = tunnelManager;
         this.netDB = netDB;
         this.server = new ServerSocket(port);
-        this.routerSock = new I2NPSocket();
+        this.transport = transport;
         this.clientMessages = clientMessages;
+        this.lookupEngine = lookupEngine;
+        this.tunnelPool = tunnelPool;
     }
 
     @Override
@@ -152,27 +170,13 @@ public class ClientServiceThread implements Runnable {
                     return;
                 }
 
-                // here we will handle creating inbound tunnels for destination
-                CreateSession createSession = (CreateSession) recvMsg;
                 // generate new id for session
                 sessionID = random.nextInt();
+                msgQueue = new ConcurrentLinkedQueue<>();
 
-                // todo sam plz help me create inbound tunnels for this destination
-                // we can store these inbound tunnels under the sessionID to identifiy them to
-                // this AudioStreaming.client
-                Destination clientDestination = createSession.getDestination();
-
-                // This will generate the inbound and outbound tunnels for the AudioStreaming.client
-                buildTunnel(clientDestination, router, true); // inbound
-                try {
-                    Thread.sleep(5000); // wait for tunnel to be created for a second
-                } catch (InterruptedException e) {
-                    // this likely wont happen but if it does we will just ignore it
-                    log.warn("CST-CCH: Tunnel creation wait interrupted", e);
-                }
-
-                //attempt to get tunnel information from router service thread
-                if (msgQueue.isEmpty()) {
+                // take inbound tunnels the pool already built, only waits if the pool ran out
+                ArrayList<Lease> sessionLeases = tunnelPool.acquireInbound(msgQueue, TUNNEL_WAIT_MILLIS);
+                if (sessionLeases.isEmpty()) {
                     log.error("Unable to make tunnel please restart router");
                     clientSock.sendMessage(new SessionStatus(sessionID, SessionStatus.Status.REFUSED));
                     return;
@@ -181,18 +185,8 @@ public class ClientServiceThread implements Runnable {
                 // accept session
                 clientSock.sendMessage(new SessionStatus(sessionID, SessionStatus.Status.CREATED));
 
-                I2CPMessage routerMsg = msgQueue.remove();
-
-
-                if (routerMsg.getType() != REQUESTLEASESET) {
-                    log.error("Message given to CST is wrong type must be leaseset)");
-                    log.debug(routerMsg.toJSONType().getFormattedJSON());
-                    return;
-                }
-
-                RequestLeaseSet leases = (RequestLeaseSet) routerMsg;
                 // ask AudioStreaming.client to authorize leaseSets
-                clientSock.sendMessage(new RequestLeaseSet(sessionID, leases.getLeases()));
+                clientSock.sendMessage(new RequestLeaseSet(sessionID, sessionLeases));
 
                 // get authorization
                 recvMsg = clientSock.getMessage();
@@ -204,17 +198,8 @@ public class ClientServiceThread implements Runnable {
                 // this is the private key for elgamal stuff corresponding to public key in
                 // leaseset for encryption
                 PrivateKey privateKey = createLeaseSet.getPrivateKey();
-                //store leaseSet in our netDB and send leaseSet out to neighbors
-                netDB.store(leaseSet);
-                //send to 3 nearby peers
-                for (RouterInfo peer : netDB.getKClosestRouterInfos(leaseSet.getHash(), 3)) {
-                    //create store message
-                    I2NPHeader store = new I2NPHeader(I2NPHeader.TYPE.DATABASESTORE, random.nextInt(), System.currentTimeMillis() + 100,
-                            new DatabaseStore(leaseSet));
-                    //send to nearby peers
-                    routerSock.sendMessage(store, peer);
-                }
-                buildTunnel(clientDestination, router, false); // outbound
+                publishLeaseSet(leaseSet);
+                // outbound tunnels are kept by the tunnel pool and shared by sessions
                 while (true) { // might be a better way to do this that avoids busy waiting
                     // wait until a new message on socket or a new message has arrived from router
                     if (!clientSock.hasMessage() && msgQueue.isEmpty())
@@ -255,6 +240,12 @@ public class ClientServiceThread implements Runnable {
                                 // btduwbs it is fine for gateway router to know dest information cause it our pookie :D
 
                                 ConcurrentHashMap<Integer, Tunnel> outboundTunnels = tunnelManager.getOutboundTunnels();
+                                if (outboundTunnels.isEmpty()) {
+                                    log.warn("No outbound tunnel to send message through");
+                                    clientSock.sendMessage(new MessageStatus(sessionID, 0, new byte[4],
+                                            MessageStatus.Status.ROUTERFAILURE));
+                                    continue;
+                                }
                                 // select a random outbound tunnel to send the message through
                                 int tunnelID = (int) outboundTunnels.keySet().toArray()[random
                                         .nextInt(outboundTunnels.size())];
@@ -271,19 +262,22 @@ public class ClientServiceThread implements Runnable {
                                 // send the message to the router
                                 I2NPHeader message = new I2NPHeader(I2NPHeader.TYPE.TUNNELDATA, random.nextInt(),
                                         System.currentTimeMillis() + 100, tunnelDataMessage);
-                                routerSock.sendMessage(message, outboundGateway);
+                                transport.sendMessage(message, outboundGateway);
                             }
                             case DESTLOOKUP -> {
                                 DestinationLookup lookup = (DestinationLookup) recvMsg;
                                 Destination dest = destLookup(lookup.getHash());
                                 clientSock.sendMessage(new DestinationReply(sessionID, dest));
                             }
+                            case CREATELEASESET -> {
+                                // client signed leases of tunnels replacing ones close to expiring
+                                createLeaseSet = (CreateLeaseSet) recvMsg;
+                                privateKey = createLeaseSet.getPrivateKey();
+                                publishLeaseSet(createLeaseSet.getLeaseSet());
+                            }
                             case DESTROYSESSION -> {
                                 clientSock.close();
-                                routerSock.close();
-                                clientMessages.remove(sessionID);
-                                // todo remove inbound tunnels?
-                                // todo handle any necessary session destroying in router
+                                // inbound tunnels of session are torn down when thread closes
                                 return; // close thread
                             }
                             default -> {
@@ -298,6 +292,18 @@ public class ClientServiceThread implements Runnable {
 
                     if (!msgQueue.isEmpty()) {
                         I2CPMessage message = msgQueue.remove();
+                        // tunnel pool replaced inbound tunnels, client must authorize the new leases
+                        if (message.getType() == REQUESTLEASESET) {
+                            RequestLeaseSet renew = (RequestLeaseSet) message;
+                            clientSock.sendMessage(new RequestLeaseSet(sessionID, renew.getLeases()));
+                            continue;
+                        }
+                        // tunnel pool could not replace inbound tunnels before they expired
+                        if (message.getType() == SESSIONSTATUS) {
+                            clientSock.sendMessage(new SessionStatus(sessionID, SessionStatus.Status.DESTROYED));
+                            clientSock.close();
+                            return;
+                        }
                         // todo handle getting message from router and giving it back to the AudioStreaming.client
                         if (message.getType() != PAYLOADMESSAGE) {
                             log.warn("Bad message from router" + message.toJSONType().getFormattedJSON());
@@ -338,229 +344,29 @@ public class ClientServiceThread implements Runnable {
                 } catch (IOException ex) {
                     log.warn("Could not close AudioStreaming.client sock", e);
                 }
+            } finally {
+                // session is over, stop delivering to it and drop its tunnels
+                int released = tunnelPool.release(msgQueue);
+                if (released > 0)
+                    log.debug("CST-CCH: Removed " + released + " inbound tunnels of session " + sessionID);
             }
         }
 
         /**
-         * Create inbound tunnel for the AudioStreaming.client destination
-         * 
-         * @param destination Destination of the AudioStreaming.client
-         * @param router      RouterInfo of this router
-         */
-        private void buildTunnel(Destination destination, RouterInfo router, boolean isInbound) {
-            // note: AudioStreaming.client destination is not hard set to endpoint of tunnel
-            // it is tacked on to the messge itself so the endpoint knows where to forward
-
-            // hold the records for the tunnel
-            ArrayList<TunnelBuild.Record> records = new ArrayList<>();
-
-            // generate a tunnel id for the tunnel
-            int tunnelID = random.nextInt(1, Integer.MAX_VALUE);
-
-            // generate random number of hops from 3 to 5
-            int numHops = 3; // 3 to 5 hops
-
-            // search netDB by hash of routerID for all closest router to form tunnel with
-            ArrayList<RouterInfo> tempPeers = netDB.getKClosestRouterInfos(router.getHash(), numHops + 1);
-
-            if (tempPeers == null || tempPeers.isEmpty()) {
-                log.warn("Peer list too small - try restarting router could be timing issue");
-                throw new IllegalStateException(
-                        "tempPeers is null or empty. Ensure queryNetDBForRouters returns valid data.");
-            }
-
-            // Because this is an inbound tunnel, we set the last peer in the list to be
-            // this router
-            if (isInbound) {
-                // set last hop to be the router id of this router
-                tempPeers.set(tempPeers.size() - 1, router);
-            } else {
-                // set first hop to be the router id of this router
-                tempPeers.set(0, router);
-            }
-
-            // Generate unique tunnel IDs per hop
-            int[] hopTunnelIDs = new int[tempPeers.size()];
-
-            for (int i = 0; i < tempPeers.size(); i++) {
-                if (i == 0) {
-                    hopTunnelIDs[i] = tunnelID; // first hop is the tunnel id
-                } else {
-                    hopTunnelIDs[i] = random.nextInt(1, Integer.MAX_VALUE); // random id for the rest of the hops
-                }
-            }
-
-            int sendMessageID = random.nextInt(1, Integer.MAX_VALUE); // unique message id for this message
-            long requestTime = System.currentTimeMillis(); // time of request
-
-            ArrayList<TunnelHopInfo> hopInfo = new ArrayList<>(); // this is for the hops in the tunnel
-
-            // create a map of the peers in the tunnel to their router ids
-            Tunnel potentialTunnel = new Tunnel();
-
-            for (int i = 0; i < tempPeers.size(); i++) {
-                RouterInfo current = tempPeers.get(i);
-
-                byte[] toPeer = Arrays.copyOf(current.getRouterID().getHash(), 16); // only first 16 bytes of the hash
-                int receiveTunnel = hopTunnelIDs[i]; // tunnel id for the tunnel
-
-                SecretKey layerKey = generateAESKey(256);
-                byte[] layerIv = new byte[16];
-                random.nextBytes(layerIv); // generate a random iv for the layer key
-                SecretKey ivKey = generateAESKey(256);
-                SecretKey replyKey = generateAESKey(256);
-
-                byte[] replyIv = new byte[16];
-                random.nextBytes(replyIv);
-
-                potentialTunnel.addTunnelObject(hopTunnelIDs[i], current, replyKey, replyIv); // add the router to the
-                                                                                              // tunnel
-
-                ArrayList<TunnelHopInfo> hopInfoInput = null; // this is for the hops in the tunnel
-
-                boolean replyFlag = false; // this is for the hops in the tunnel - they change this later
-
-                TunnelHopInfo hopInfoItem = new TunnelHopInfo(toPeer, layerKey, layerIv, ivKey,
-                        receiveTunnel);
-                hopInfo.add(hopInfoItem); // add to the front of the list
-                // oops i realized this is now wrong cause i flipped the order of the loop hehe
-
-                TunnelBuild.Record.TYPE position = null;
-
-                RouterInfo next;
-                int nextTunnel = 0; // this is the tunnel id for the next hop default to 0 for outbound creation
-                if (i == 0) {
-                    position = TunnelBuild.Record.TYPE.GATEWAY;
-                    hopInfoInput = new ArrayList<>(hopInfo);
-                    next = tempPeers.get(i + 1);
-                    nextTunnel = hopTunnelIDs[i + 1]; // tunnel id for the next hop
-                } else if (i == tempPeers.size() - 1) {
-                    position = TunnelBuild.Record.TYPE.ENDPOINT;
-                    if (isInbound) {
-                        tempPeers.set(i, router); // make sure to overwrite for later
-                        next = router; // set to AudioStreaming.client creating request if real for testing set to gateway router
-                        msgQueue = new ConcurrentLinkedQueue<>();
-                        // currInboundTunnelID = receiveTunnel;
-                        clientMessages.put(receiveTunnel, msgQueue);
-
-                    } else {
-                        // Forward reply through inbound tunnel gateway
-                        LeaseSet leaseSet = (LeaseSet) netDB.lookup(destination.getHash());
-                        if (leaseSet == null) {
-                            log.warn("LeaseSet not found for destination "
-                                    + Base64.toBase64String(destination.getHash()));
-                            throw new IllegalStateException("LeaseSet not found for destination ");
-                        }
-                        ArrayList<Lease> leases = leaseSet.getLeases(); // get the first lease from the leaseset
-                        Lease lease = leases.getFirst(); // get the first lease from the leaseset
-                        byte[] gatewayHash = lease.getTunnelGW();
-                        next = (RouterInfo) netDB.lookup(gatewayHash); // get the router info for the gateway
-                        nextTunnel = lease.getTunnelID(); // get the tunnel id for the gateway
-                    }
-                } else {
-                    position = TunnelBuild.Record.TYPE.PARTICIPANT;
-                    next = tempPeers.get(i + 1);
-                    nextTunnel = hopTunnelIDs[i + 1]; // tunnel id for the next hop
-                }
-                byte[] nextIdent = next.getHash();
-
-                TunnelBuild.Record record = new TunnelBuild.Record(
-                        toPeer,
-                        receiveTunnel,
-                        current.getHash(),
-                        nextTunnel,
-                        nextIdent,
-                        layerKey,
-                        layerIv,
-                        ivKey,
-                        replyKey,
-                        replyIv,
-                        requestTime,
-                        sendMessageID,
-                        position,
-                        hopInfoInput, // only gateway gets this not null
-                        replyFlag); // flips to true in response if good
-
-                records.add(record);
-            }
-
-            // set the first record hop info to the list
-            TunnelBuild.Record firstRecord = records.get(0);
-            firstRecord.setHopInfo(hopInfo); // set the hop info for the first record
-            // had to do this cause i flipped the loop SORRY!!! i know its clanky
-
-            // save this list of peers to the tunnel manager for easy access later
-            if (isInbound) {
-                tunnelManager.addInboundTunnel(tunnelID, potentialTunnel);
-            } else {
-                tunnelManager.addOutboundTunnel(tunnelID, potentialTunnel);
-            }
-
-            // save the reply keys of each record
-            ArrayList<SecretKey> replyKeys = new ArrayList<>();
-            for (int i = 0; i < records.size(); i++) {
-                TunnelBuild.Record record = records.get(i);
-                replyKeys.add(record.getReplyKey()); // save the reply key for the record
-            }
-
-            // encrypt the records for the tunnel build message
-            for (int i = 0; i < records.size(); i++) {
-                TunnelBuild.Record record = records.get(i);
-                record.hybridEncrypt(tempPeers.get(i).getRouterID().getElgamalPublicKey(), record.getReplyKey());
-            }
-
-            // OKAY NOW WE AES ENCRYPT WISH ME LUCK!!!!
-            // first record is not encrypted with AES, it is the gateway record
-            // second record is encrypted with replyKey from the first record
-            // third record is encrypted with the reply key from record 2 THEN from record 1
-            // and so on
-
-            for (int i = 1; i < records.size(); i++) { // Start from the second record (index 1)
-                TunnelBuild.Record currentRecord = records.get(i);
-
-                // Apply layered encryption
-                for (int j = i - 1; j >= 0; j--) { // Encrypt using reply keys from all previous records
-                    TunnelBuild.Record previousRecord = records.get(j);
-
-                    SecretKey aesKey = replyKeys.get(j); // Get the reply key for the previous record
-                    byte[] iv = previousRecord.getReplyIv();
-
-                    // Encrypt the current record with the replyKey and replyIv from the previous
-                    // record
-                    currentRecord.layeredEncrypt(aesKey, iv);
-                }
-            }
-
-            // send tunnel build message to the first peer in the list
-            RouterInfo firstPeer = tempPeers.get(0);
-            I2NPHeader tunnelBuildMessage = new I2NPHeader(I2NPHeader.TYPE.TUNNELBUILD, random.nextInt(),
-                    System.currentTimeMillis() + 100, new TunnelBuild(records));
-            I2NPSocket buildSocket = null;
-            try {
-                buildSocket = new I2NPSocket();
-                buildSocket.sendMessage(tunnelBuildMessage, firstPeer);
-                buildSocket.close();
-            } catch (IOException e) {
-                if (buildSocket != null)
-                    buildSocket.close(); // if possible close socket if created
-                log.error("Fatal: Could not send tunnel build message");
-                log.info("Try restarting router");
-            }
-        }
-
-        /**
-         * Generate a new AES key for the tunnel
-         * 
-         * @param i Size of the key in bits
-         * @return SecretKey for the tunnel
+         * Store leaseSet in our netDB and send it out to nearby peers
+         *
+         * @param leaseSet LeaseSet signed by client
+         * @throws IOException if store could not be sent
          */
-        private SecretKey generateAESKey(int i) {
-            try {
-                KeyGenerator keyGen = KeyGenerator.getInstance("AES");
-                keyGen.init(i);
-                return keyGen.generateKey();
-            } catch (NoSuchAlgorithmException e) {
-                throw new RuntimeException(e); // should never hit case
+        private void publishLeaseSet(LeaseSet leaseSet) throws IOException {
+            netDB.store(leaseSet);
+            //send to 3 nearby peers
+            for (RouterInfo peer : netDB.getKClosestRouterInfos(leaseSet.getHash(), 3)) {
+                //create store message
+                I2NPHeader store = new I2NPHeader(I2NPHeader.TYPE.DATABASESTORE, random.nextInt(), System.currentTimeMillis() + 100,
+                        new DatabaseStore(leaseSet));
+                //send to nearby peers
+                transport.sendMessage(store, peer);
             }
         }
 
@@ -575,23 +381,8 @@ public class ClientServiceThread implements Runnable {
             Record record = netDB.lookup(hash);
             if (record == null || record.getRecordType() == Record.RecordType.ROUTERINFO) { // could not find or is
                                                                                             // wrong type
-
-                // see if our peers have message
-                ArrayList<RouterInfo> peers = netDB.getKClosestRouterInfos(hash, 3);
-
-                for (RouterInfo peer : peers) {
-                    I2NPHeader lookup = new I2NPHeader(I2NPHeader.TYPE.DATABASELOOKUP, random.nextInt(),
-                            System.currentTimeMillis() + 200, new DatabaseLookup(hash, router.getHash()));
-                    routerSock.sendMessage(lookup, peer);
-                }
-                // wait for responses
-                try {
-                    Thread.sleep(350);
-                } catch (InterruptedException e) {
-                    log.warn("Dest lookup wait interrupted", e);
-                }
-                // attempt lookup again
-                record = netDB.lookup(hash);
+                // see if our peers have it, lookup engine asks the peers closest to it
+                record = lookupEngine.lookup(hash, 350).join();
                 if (record == null || record.getRecordType() == Record.RecordType.ROUTERINFO)
                     return null; // bad type of record should be leaseset for destination
             }
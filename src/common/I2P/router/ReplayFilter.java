@@ -0,0 +1,162 @@
+package common.I2P.router;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Router wide filter to detect replayed I2NP message IDs
+ *
+ * <p>IDs are kept in a fixed size open addressed table, so memory is bounded and checks are O(1). Each slot holds
+ * {@code msgID << 32 | expirationSeconds} and is updated with CAS so the filter is lock-free and safe to share between
+ * receive threads. A slot whose expiration has passed is free to be reused, if every slot a message ID can probe is
+ * still live the entry expiring soonest is evicted.</p>
+ *
+ * @implNote if two threads insert the same ID into different slots at the same moment the entry in the earlier probe
+ * slot wins and the other is removed. Entries are only ever written to the first free slot in probe order, so this is
+ * rare, in the worst case a duplicate racing its original is let through once.
+ */
+public class ReplayFilter {
+    /**
+     * Default number of slots in table
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+    /**
+     * Longest we will remember an ID, messages claiming a later expiration are remembered this long
+     */
+    static final long MAX_TTL_SECONDS = 60;
+    /**
+     * Max milliseconds a message may expire in, an ID would be forgotten while a later expiring message is still
+     * accepted so routers drop these messages before checking the filter
+     */
+    public static final long MAX_TTL_MILLIS = MAX_TTL_SECONDS * 1000;
+    /**
+     * Number of slots probed for each ID
+     */
+    private static final int PROBE_WINDOW = 16;
+    /**
+     * Marks a slot that has never been used
+     */
+    private static final long EMPTY = 0L;
+
+    /**
+     * Table of entries
+     */
+    private final AtomicLongArray slots;
+    /**
+     * Mask to get slot index from hash, capacity is a power of 2
+     */
+    private final int mask;
+
+    /**
+     * Create replay filter with {@link #DEFAULT_CAPACITY} slots
+     */
+    public ReplayFilter() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create replay filter
+     * @param capacity Number of IDs filter can hold, rounded up to a power of 2
+     */
+    public ReplayFilter(int capacity) {
+        if (capacity < PROBE_WINDOW || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be between " + PROBE_WINDOW + " and 2^30");
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new AtomicLongArray(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Record message ID if it has not been seen
+     * @param msgID ID of message
+     * @param expiration Expiration of message in milliseconds since epoch
+     * @return true if message ID is new, false if it is a replay
+     */
+    public boolean checkAndAdd(int msgID, long expiration) {
+        return checkAndAdd(msgID, expiration, System.currentTimeMillis());
+    }
+
+    /**
+     * Record message ID if it has not been seen
+     * @param msgID ID of message
+     * @param expiration Expiration of message in milliseconds since epoch
+     * @param now Current time in milliseconds since epoch
+     * @return true if message ID is new, false if it is a replay
+     */
+    boolean checkAndAdd(int msgID, long expiration, long now) {
+        long nowSeconds = now / 1000;
+        //remember ID at least until next second and at most MAX_TTL_SECONDS
+        long expirationSeconds = Math.min(Math.max((expiration + 999) / 1000, nowSeconds + 1),
+                nowSeconds + MAX_TTL_SECONDS);
+        long entry = ((long) msgID << 32) | (expirationSeconds & 0xFFFFFFFFL);
+        int home = spread(msgID) & mask;
+
+        while (true) {
+            int freeSlot = -1;
+            long freeValue = EMPTY;
+            int oldestSlot = home;
+            long oldestValue = slots.get(home);
+
+            for (int i = 0; i < PROBE_WINDOW; i++) {
+                int slot = (home + i) & mask;
+                long value = slots.get(slot);
+                boolean live = value != EMPTY && expirationOf(value) >= nowSeconds;
+
+                if (live && idOf(value) == msgID)
+                    return false; //seen before and still live
+                if (!live && freeSlot == -1) {
+                    freeSlot = slot;
+                    freeValue = value;
+                }
+                if (live && expirationOf(value) < expirationOf(oldestValue)) {
+                    oldestSlot = slot;
+                    oldestValue = value;
+                }
+            }
+
+            //window is full of live IDs evict the one expiring soonest
+            if (freeSlot == -1) {
+                freeSlot = oldestSlot;
+                freeValue = oldestValue;
+            }
+
+            if (!slots.compareAndSet(freeSlot, freeValue, entry))
+                continue; //another thread changed slot, scan again
+
+            return !lostRace(home, freeSlot, msgID, nowSeconds, entry);
+        }
+    }
+
+    /**
+     * Check if the same ID was inserted earlier in the probe window by another thread, if so remove our entry
+     * @return true if another entry for this ID wins
+     */
+    private boolean lostRace(int home, int ourSlot, int msgID, long nowSeconds, long entry) {
+        for (int i = 0; i < PROBE_WINDOW; i++) {
+            int slot = (home + i) & mask;
+            if (slot == ourSlot)
+                return false; //we are first in probe order
+            long value = slots.get(slot);
+            if (value != EMPTY && idOf(value) == msgID && expirationOf(value) >= nowSeconds) {
+                slots.compareAndSet(ourSlot, entry, EMPTY);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int idOf(long value) {
+        return (int) (value >>> 32);
+    }
+
+    private static long expirationOf(long value) {
+        return value & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Mix bits of ID so sequential IDs do not cluster in the table
+     */
+    private static int spread(int msgID) {
+        int h = msgID * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
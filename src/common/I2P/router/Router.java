@@ -4,30 +4,60 @@ import common.I2P.I2NP.DatabaseLookup;
 import common.I2P.I2NP.DatabaseStore;
 import common.I2P.I2NP.I2NPHeader;
 import common.I2P.IDs.RouterID;
+import common.I2P.NetworkDB.LookupEngine;
 import common.I2P.NetworkDB.NetDB;
+import common.I2P.NetworkDB.NetDBSnapshot;
 import common.I2P.NetworkDB.RouterInfo;
 import common.I2P.tunnels.TunnelManager;
+import common.I2P.tunnels.TunnelPool;
 import common.Logger;
 import common.transport.I2CP.I2CPMessage;
-import common.transport.I2NPSocket;
+import common.transport.I2NPCodec;
+import common.transport.BufferPool;
+import common.transport.I2NPReceiver;
+import common.transport.OutboundTransport;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
+import java.nio.file.Path;
 import java.security.*;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Class represents Core Router module of I2P
  */
 public class Router implements Runnable {
+    /**
+     * Number of channels the outbound transport sends on
+     */
+    private static final int OUTBOUND_CHANNELS = 2;
+    /**
+     * Max number of receive buffers kept pooled
+     */
+    private static final int RECEIVE_BUFFERS = 16;
+    /**
+     * Milliseconds between saving NetDB records to snapshot
+     */
+    private static final long SNAPSHOT_INTERVAL_MILLIS = 60_000L;
+    /**
+     * Number of peers we publish our RouterInfo to when starting from a snapshot
+     */
+    private static final int PUBLISH_PEERS = 8;
+    /**
+     * Max milliseconds between republishing our RouterInfo, peers drop it once it is older than their max age
+     */
+    private static final long REPUBLISH_INTERVAL_MILLIS = 3_600_000L;
     /**
      * Port for Client Service Thread
      */
@@ -37,6 +67,42 @@ public class Router implements Runnable {
      */
     private InetSocketAddress bootstrapAddress;
     private int RSTPort;
+    /**
+     * Number of threads receiving on RSTPort
+     */
+    private int receiveThreads;
+    /**
+     * Executor used to handle RST messages
+     */
+    private RouterConfig.ExecutorMode executorMode;
+    /**
+     * Max number of RST messages handled at once
+     */
+    private int maxInFlight;
+    /**
+     * Max number of records in each NetDB bucket
+     */
+    private int bucketSize;
+    /**
+     * Milliseconds a RouterInfo is kept in NetDB after it was published or its router was last seen
+     */
+    private long routerInfoMaxAgeMillis;
+    /**
+     * File NetDB snapshot is saved to, null if snapshots are disabled
+     */
+    private Path snapshotPath;
+    /**
+     * Max age of snapshot in milliseconds to skip bootstrap
+     */
+    private long snapshotMaxAgeMillis;
+    /**
+     * Number of inbound tunnels kept ready for client sessions
+     */
+    private int inboundTunnels;
+    /**
+     * Number of outbound tunnels kept for client sessions
+     */
+    private int outboundTunnels;
     /**
      * Address of this router
      */
@@ -49,6 +115,18 @@ public class Router implements Runnable {
      * NetworkDB is the database of all routers in the network
      */
     private NetDB netDB;
+    /**
+     * Transport shared by all router components for sending I2NP messages
+     */
+    private OutboundTransport transport;
+    /**
+     * Iterative lookups of records we do not have, shared by RST and CST
+     */
+    private LookupEngine lookupEngine;
+    /**
+     * Tunnels built ahead of time for client sessions
+     */
+    private TunnelPool tunnelPool;
 
     /**
      * RouterID is the ID of this router
@@ -56,9 +134,9 @@ public class Router implements Runnable {
     private RouterID routerID;
 
     /**
-     * RouterInfo is the information about this router
+     * RouterInfo is the information about this router, replaced with a newly signed copy when republished
      */
-    private RouterInfo routerInfo;
+    private volatile RouterInfo routerInfo;
 
     /**
      * ElGamal key pair for this router
@@ -69,6 +147,18 @@ public class Router implements Runnable {
      * Ed25519 key pair for this router
      */
     private KeyPair edKeyPair;
+    /**
+     * Filter shared by all receivers to drop replayed messages
+     */
+    private ReplayFilter replayFilter = new ReplayFilter();
+    /**
+     * Republishes our RouterInfo so it does not expire in peers' NetDBs
+     */
+    private final ScheduledExecutorService republisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Router-republish");
+        thread.setDaemon(true);
+        return thread;
+    });
     /**
      * Secure random
      */
@@ -89,7 +179,17 @@ public class Router implements Runnable {
         this.RSTPort = configFile.getRSTport();
         this.CSTPort = configFile.getCSTPort();
         this.bootstrapAddress = configFile.getBootstrapPeer();
+        this.receiveThreads = configFile.getReceiveThreads();
+        this.executorMode = configFile.getExecutorMode();
+        this.maxInFlight = configFile.getMaxInFlight();
+        this.bucketSize = configFile.getBucketSize();
+        this.routerInfoMaxAgeMillis = configFile.getRouterInfoMaxAge() * 1000;
+        this.snapshotPath = configFile.getSnapshotPath();
+        this.snapshotMaxAgeMillis = configFile.getSnapshotMaxAge() * 1000;
+        this.inboundTunnels = configFile.getInboundTunnels();
+        this.outboundTunnels = configFile.getOutboundTunnels();
         this.tunnelManager = new TunnelManager();
+        I2NPCodec.setOutboundFormat(configFile.getWireFormat());
     }
 
     /**
@@ -100,24 +200,16 @@ public class Router implements Runnable {
      * @param bootstrapPeer Address of bootstrap peer
      */
     public Router(InetAddress address, int RSTport, int CSTPort, InetSocketAddress bootstrapPeer) {
-        // todo add config parsing
-        this.address = address;
-        this.RSTPort = RSTport;
-        this.CSTPort = CSTPort;
-        this.bootstrapAddress = bootstrapPeer;
-        this.tunnelManager = new TunnelManager();
+        this(new RouterConfig(address, RSTport, CSTPort, bootstrapPeer));
     }
 
     private boolean setUp() throws IOException {
-        // create socket to contact bootstrap peer
-        I2NPSocket socket = new I2NPSocket();
-
         // Send a DatabaseStore message to the bootstrap peer
         DatabaseStore databaseStore = new DatabaseStore(routerInfo); // reply token set to 0 for now yay!
         int msgId = random.nextInt(); // random message id for now
         I2NPHeader msg = new I2NPHeader(I2NPHeader.TYPE.DATABASESTORE, msgId, System.currentTimeMillis() + 500,
                 databaseStore);
-        socket.sendMessage(msg, bootstrapAddress);
+        transport.sendMessage(msg, bootstrapAddress);
 
         try {
             Thread.sleep(1000); //wait to see if peer got message
@@ -127,7 +219,7 @@ public class Router implements Runnable {
             I2NPHeader lookupMsg = new I2NPHeader(I2NPHeader.TYPE.DATABASELOOKUP, random.nextInt(),
                     System.currentTimeMillis() + 500,
                     databaseLookup);
-            socket.sendMessage(lookupMsg, bootstrapAddress);
+            transport.sendMessage(lookupMsg, bootstrapAddress);
             // give enough time for all the routers to send their messages/turn on
             Thread.sleep(1000);
             //check if we learned about bootstrap peer netDB should have at least 1 peer(bootstrap)
@@ -143,10 +235,45 @@ public class Router implements Runnable {
         I2NPHeader lookupMsg2 = new I2NPHeader(I2NPHeader.TYPE.DATABASELOOKUP, random.nextInt(),
                 System.currentTimeMillis() + 100,
                 databaseLookup2);
-        socket.sendMessage(lookupMsg2, bootstrapAddress);
+        transport.sendMessage(lookupMsg2, bootstrapAddress);
         return true;
     }
 
+    /**
+     * Send our RouterInfo to the bootstrap peer and the peers closest to us, used instead of bootstrap when NetDB was
+     * restored from a fresh snapshot since our keys are new each start
+     */
+    private void publishRouterInfo() throws IOException {
+        DatabaseStore databaseStore = new DatabaseStore(routerInfo);
+        if (bootstrapAddress.getPort() != RSTPort) //bootstrap peer does not publish to itself
+            transport.sendMessage(new I2NPHeader(I2NPHeader.TYPE.DATABASESTORE, random.nextInt(),
+                    System.currentTimeMillis() + 500, databaseStore), bootstrapAddress);
+
+        for (RouterInfo peer : netDB.getKClosestRouters(routerInfo.getHash(), PUBLISH_PEERS)) {
+            I2NPHeader msg = new I2NPHeader(I2NPHeader.TYPE.DATABASESTORE, random.nextInt(),
+                    System.currentTimeMillis() + 500, databaseStore);
+            transport.sendMessage(msg, peer);
+        }
+    }
+
+    /**
+     * Sign our RouterInfo again with the current date and publish it, peers measure its age from its publish date so
+     * without this they would drop us after their max age
+     */
+    private void republishRouterInfo() {
+        RouterInfo current = routerInfo;
+        RouterInfo republished = new RouterInfo(routerID, System.currentTimeMillis(), current.getHost(),
+                current.getPort(), edKeyPair.getPrivate());
+        netDB.updateRouterInfo(republished);
+        routerInfo = republished;
+        try {
+            publishRouterInfo();
+            log.debug("Republished RouterInfo");
+        } catch (IOException e) {
+            log.warn("Could not republish RouterInfo", e);
+        }
+    }
+
     private KeyPair generateKeyPairElGamal() {
         // Generate a key pair for the router
         try {
@@ -181,49 +308,104 @@ public class Router implements Runnable {
         routerInfo = new RouterInfo(routerID, System.currentTimeMillis(), address.getHostName(), RSTPort, edKeyPair.getPrivate());
 
         // Initialize NetDB
-        netDB = new NetDB(routerInfo);
+        netDB = new NetDB(routerInfo, bucketSize, routerInfoMaxAgeMillis);
+
+        // restore peers from last run so a fresh snapshot lets us skip bootstrap
+        boolean warmStart = false;
+        if (snapshotPath != null) {
+            NetDBSnapshot snapshot = new NetDBSnapshot(snapshotPath, snapshotMaxAgeMillis);
+            warmStart = snapshot.isFresh() && netDB.restore(snapshot) > 0;
+            netDB.startSnapshots(snapshot, SNAPSHOT_INTERVAL_MILLIS);
+        }
 
         //hashmap for RST to CST communication
         ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> clientMessages = new ConcurrentHashMap<>();
 
         try {
-            //create and start RST
-            Thread rst = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    // Start the router service thread to handle incoming messages
+            // all components send over the same channels instead of opening a socket per message
+            transport = new OutboundTransport(OUTBOUND_CHANNELS);
+            lookupEngine = new LookupEngine(netDB, routerInfo, transport);
+            tunnelPool = new TunnelPool(routerInfo, netDB, tunnelManager, transport, clientMessages, inboundTunnels,
+                    outboundTunnels);
+            // participant tunnels expire too so start before receiving tunnel builds
+            tunnelManager.start();
+
+            //create and start RST, receivers decode messages and hand them to the thread pool
+            // virtual threads let handlers block on lookups without starving tunnel data forwarding
+            ExecutorService threadpool = executorMode == RouterConfig.ExecutorMode.VIRTUAL
+                    ? Executors.newVirtualThreadPerTaskExecutor()
+                    : Executors.newFixedThreadPool(15);
+            // bound messages being handled so a flood of packets cannot queue or spawn without limit
+            Semaphore inFlight = new Semaphore(maxInFlight);
+            Consumer<I2NPHeader> dispatcher = message -> {
+                // replay filter only remembers IDs for max ttl, a message living longer could be replayed after
+                if (message.getExpiration() > System.currentTimeMillis() + ReplayFilter.MAX_TTL_MILLIS) {
+                    log.warn("RST: Received message expiring too far in the future dropping " + message.getType());
+                    return;
+                }
+                // capacity is checked first so a message dropped here is not remembered and its retransmit is accepted
+                if (!inFlight.tryAcquire()) {
+                    log.warn("RST: Too many messages in flight dropping " + message.getType());
+                    return;
+                }
+                // check replays on receive thread so they are never decrypted or processed
+                if (!replayFilter.checkAndAdd(message.getMsgID(), message.getExpiration())) {
+                    inFlight.release();
+                    log.warn("RST: Received repeated message ID dropping message");
+                    return;
+                }
+                RouterServiceThread rst = new RouterServiceThread(netDB, routerInfo, message, clientMessages,
+                        tunnelManager, elgamalKeyPair.getPrivate(), edKeyPair.getPrivate(), transport,
+                        lookupEngine, tunnelPool);
+                // To sam, this will turn on floodfill, from your favorite NetDB implementor
+                // Seth
+                // rst.setFloodFill(true);
+                threadpool.execute(() -> {
                     try {
-                        I2NPSocket socket = new I2NPSocket(RSTPort, address);
-                        ExecutorService threadpool = Executors.newFixedThreadPool(15);
-                        while (true) {
-                            I2NPHeader message = null;
-
-                            message = socket.getMessage();
-                            RouterServiceThread rst = new RouterServiceThread(netDB, routerInfo, message, clientMessages,
-                                    tunnelManager, elgamalKeyPair.getPrivate(), edKeyPair.getPrivate());
-                            // To sam, this will turn on floodfill, from your favorite NetDB implementor
-                            // Seth
-                            // rst.setFloodFill(true);
-                            threadpool.execute(rst);
-                        }
-                    }
-                    catch(SocketException e) {
-                        log.error("Fatal could not setup socket for RST ", e);
-                        throw new RuntimeException(e);
-                    }
-                    catch(IOException e) {
-                        log.warn("RST: IO error while getting message", e);
+                        rst.run();
+                    } finally {
+                        inFlight.release();
                     }
+                });
+            };
+
+            if (receiveThreads > 1 && !I2NPReceiver.isReusePortSupported()) {
+                log.warn("SO_REUSEPORT not supported on this platform using 1 receive thread instead of "
+                        + receiveThreads);
+                receiveThreads = 1;
+            }
+
+            // each receiver gets its own channel on RSTPort, the kernel balances datagrams across them
+            BufferPool bufferPool = new BufferPool(RECEIVE_BUFFERS * receiveThreads);
+            for (int i = 0; i < receiveThreads; i++) {
+                I2NPReceiver receiver;
+                try {
+                    receiver = new I2NPReceiver(new InetSocketAddress(address, RSTPort), bufferPool, dispatcher,
+                            receiveThreads > 1);
+                } catch (IOException e) {
+                    log.error("Fatal could not setup socket for RST ", e);
+                    throw new RuntimeException(e);
                 }
-            });
-            rst.start(); //start router service thread
+                Thread rst = new Thread(receiver, "RST-receive-" + i);
+                rst.start(); //start router service thread
+            }
+
+            // republish well inside max age so peers keep our RouterInfo while we are up
+            long republishMillis = Math.max(1, Math.min(REPUBLISH_INTERVAL_MILLIS, routerInfoMaxAgeMillis / 4));
+            republisher.scheduleWithFixedDelay(this::republishRouterInfo, republishMillis, republishMillis,
+                    TimeUnit.MILLISECONDS);
 
             if (bootstrapAddress.getPort() == RSTPort) { //we are bootstrap peer no clients and no setup needed
                 return;
             }
 
             boolean startup = false;
-            for (int i = 0; i < 5; i++) {
+            if (warmStart) {
+                publishRouterInfo();
+                log.info("NetDB restored from snapshot skipping bootstrap");
+                startup = true;
+            }
+            for (int i = 0; i < 5 && !startup; i++) {
                 if (setUp()) {
                     log.info("Bootstrap successful");
                     startup = true;
@@ -237,8 +419,12 @@ public class Router implements Runnable {
                 System.exit(1);
             }
 
+            // build tunnels now that we know peers so sessions do not wait for them
+            tunnelPool.start();
+
             //create and start CST
-            Thread cst = new Thread(new ClientServiceThread(routerInfo, tunnelManager, netDB, CSTPort, clientMessages));
+            Thread cst = new Thread(new ClientServiceThread(routerInfo, tunnelManager, netDB, CSTPort, clientMessages,
+                    transport, lookupEngine, tunnelPool));
             cst.start();
 
         } catch (IOException e) {
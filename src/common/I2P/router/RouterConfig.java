@@ -1,5 +1,8 @@
 package common.I2P.router;
 
+import common.I2P.NetworkDB.NetDB;
+import common.I2P.tunnels.TunnelPool;
+import common.transport.I2NPCodec;
 import merrimackutil.json.JsonIO;
 import merrimackutil.json.types.JSONObject;
 
@@ -9,12 +12,81 @@ import java.io.InvalidObjectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
 
 public class RouterConfig {
+    /**
+     * How RST messages are executed
+     */
+    public enum ExecutorMode {
+        /**
+         * Fixed pool of platform threads
+         */
+        FIXED,
+        /**
+         * New virtual thread for each message
+         */
+        VIRTUAL
+    }
+
     private InetAddress address;
     private int RSTport;
     private int CSTPort;
     private InetSocketAddress bootstrapPeer;
+    /**
+     * Format used to send I2NP messages, routers read both formats
+     */
+    private I2NPCodec.Format wireFormat = I2NPCodec.Format.JSON;
+    /**
+     * Number of channels receiving on the RST port, more than one requires SO_REUSEPORT
+     */
+    private int receiveThreads = 1;
+    /**
+     * Executor used to handle RST messages
+     */
+    private ExecutorMode executorMode = ExecutorMode.FIXED;
+    /**
+     * Max number of RST messages being handled at once, messages received past this are dropped
+     */
+    private int maxInFlight = 1024;
+    /**
+     * Max number of records in each NetDB bucket
+     */
+    private int bucketSize = NetDB.DEFAULT_BUCKET_CAPACITY;
+    /**
+     * Seconds a RouterInfo is kept after it was published or its router was last seen
+     */
+    private long routerInfoMaxAge = NetDB.DEFAULT_ROUTERINFO_MAX_AGE_MILLIS / 1000;
+    /**
+     * File NetDB snapshot is saved to, null if snapshots are disabled
+     */
+    private Path snapshotPath;
+    /**
+     * Max age of snapshot in seconds for router to skip bootstrap on start
+     */
+    private long snapshotMaxAge = 1800;
+    /**
+     * Number of inbound tunnels kept ready for client sessions
+     */
+    private int inboundTunnels = TunnelPool.DEFAULT_QUANTITY;
+    /**
+     * Number of outbound tunnels kept for client sessions
+     */
+    private int outboundTunnels = TunnelPool.DEFAULT_QUANTITY;
+
+    /**
+     * Create config with default options
+     * @param address Address of machine router is running on
+     * @param RSTport Port to Router Service thread for I2NP communication(Router<->Router)
+     * @param CSTPort Port to run Client Service thread for I2CP communication(Client<->Router)
+     * @param bootstrapPeer Address of bootstrap peer
+     */
+    public RouterConfig(InetAddress address, int RSTport, int CSTPort, InetSocketAddress bootstrapPeer) {
+        this.address = address;
+        this.RSTport = RSTport;
+        this.CSTPort = CSTPort;
+        this.bootstrapPeer = bootstrapPeer;
+    }
 
     public RouterConfig(File config) throws FileNotFoundException, InvalidObjectException {
         if (!config.exists())
@@ -43,6 +115,76 @@ public class RouterConfig {
         //get proper ports
         RSTport = routerJSON.getInt("RSTPort");
         CSTPort = routerJSON.getInt("CSTPort");
+
+        //optional format to send I2NP messages in {@code json or binary}
+        if (json.containsKey("wire-format")) {
+            try {
+                wireFormat = I2NPCodec.Format.valueOf(json.getString("wire-format").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException("wire-format must be json or binary");
+            }
+        }
+
+        //optional number of threads receiving on RST port, each gets its own channel bound with SO_REUSEPORT
+        if (json.containsKey("receive-threads")) {
+            receiveThreads = json.getInt("receive-threads");
+            if (receiveThreads < 1)
+                throw new InvalidObjectException("receive-threads must be at least 1");
+        }
+
+        //optional executor for RST messages {@code fixed or virtual}
+        if (json.containsKey("executor")) {
+            try {
+                executorMode = ExecutorMode.valueOf(json.getString("executor").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new InvalidObjectException("executor must be fixed or virtual");
+            }
+        }
+
+        //optional bound on RST messages handled at once
+        if (json.containsKey("max-in-flight")) {
+            maxInFlight = json.getInt("max-in-flight");
+            if (maxInFlight < 1)
+                throw new InvalidObjectException("max-in-flight must be at least 1");
+        }
+
+        //optional max records in each NetDB bucket
+        if (json.containsKey("bucket-size")) {
+            bucketSize = json.getInt("bucket-size");
+            if (bucketSize < 1)
+                throw new InvalidObjectException("bucket-size must be at least 1");
+        }
+
+        //optional max age of RouterInfos in seconds
+        if (json.containsKey("routerinfo-max-age")) {
+            routerInfoMaxAge = json.getInt("routerinfo-max-age");
+            if (routerInfoMaxAge < 1)
+                throw new InvalidObjectException("routerinfo-max-age must be at least 1");
+        }
+
+        //optional file to save NetDB to so a restarted router does not need to bootstrap
+        if (json.containsKey("netdb-snapshot"))
+            snapshotPath = Path.of(json.getString("netdb-snapshot"));
+
+        //optional max age of snapshot in seconds
+        if (json.containsKey("netdb-snapshot-max-age")) {
+            snapshotMaxAge = json.getInt("netdb-snapshot-max-age");
+            if (snapshotMaxAge < 0)
+                throw new InvalidObjectException("netdb-snapshot-max-age must not be negative");
+        }
+
+        //optional number of tunnels kept built ahead of time
+        if (json.containsKey("inbound-tunnels")) {
+            inboundTunnels = json.getInt("inbound-tunnels");
+            if (inboundTunnels < 1)
+                throw new InvalidObjectException("inbound-tunnels must be at least 1");
+        }
+
+        if (json.containsKey("outbound-tunnels")) {
+            outboundTunnels = json.getInt("outbound-tunnels");
+            if (outboundTunnels < 1)
+                throw new InvalidObjectException("outbound-tunnels must be at least 1");
+        }
     }
 
     public InetAddress getAddress() {
@@ -60,4 +202,44 @@ public class RouterConfig {
     public int getRSTport() {
         return RSTport;
     }
+
+    public I2NPCodec.Format getWireFormat() {
+        return wireFormat;
+    }
+
+    public int getReceiveThreads() {
+        return receiveThreads;
+    }
+
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    public long getRouterInfoMaxAge() {
+        return routerInfoMaxAge;
+    }
+
+    public Path getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    public long getSnapshotMaxAge() {
+        return snapshotMaxAge;
+    }
+
+    public int getInboundTunnels() {
+        return inboundTunnels;
+    }
+
+    public int getOutboundTunnels() {
+        return outboundTunnels;
+    }
 }
@@ -2,6 +2,7 @@ package common.I2P.router;
 
 import common.I2P.I2NP.*;
 import common.I2P.NetworkDB.Lease;
+import common.I2P.NetworkDB.LookupEngine;
 import common.I2P.NetworkDB.NetDB;
 import common.I2P.NetworkDB.Record;
 import common.I2P.NetworkDB.RouterInfo;
@@ -9,21 +10,18 @@ import common.I2P.tunnels.*;
 import common.Logger;
 import common.transport.I2CP.I2CPMessage;
 import common.transport.I2CP.PayloadMessage;
-import common.transport.I2CP.RequestLeaseSet;
-import common.transport.I2NPSocket;
-import merrimackutil.util.NonceCache;
+import common.transport.OutboundTransport;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
-import java.net.SocketException;
-import java.nio.ByteBuffer;
 import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
@@ -70,7 +68,18 @@ public class RouterServiceThread implements Runnable {
      * Signing private key for this router
      */
     private PrivateKey signingPrivateKey;
-    private NonceCache nonceCache;
+    /**
+     * Transport for sending I2NP messages
+     */
+    private OutboundTransport transport;
+    /**
+     * Lookup engine for finding records we do not have
+     */
+    private LookupEngine lookupEngine;
+    /**
+     * Pool of tunnels this router builds
+     */
+    private TunnelPool tunnelPool;
     private ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> cstMessages;
 
     /**
@@ -79,10 +88,14 @@ public class RouterServiceThread implements Runnable {
      * @param networkDatabase Network database of router
      * @param router          RouterInfo of this router
      * @param recievedMessage I2NP message received
+     * @param transport       Transport for sending I2NP messages
+     * @param lookupEngine    Lookup engine for finding records we do not have
+     * @param tunnelPool      Pool of tunnels this router builds
      */
     public RouterServiceThread(NetDB networkDatabase, RouterInfo router, I2NPHeader recievedMessage,
             ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> cstMessages,
-            TunnelManager tunnelManager, PrivateKey elgamalPrivateKey, PrivateKey signingPrivateKey) {
+            TunnelManager tunnelManager, PrivateKey elgamalPrivateKey, PrivateKey signingPrivateKey,
+            OutboundTransport transport, LookupEngine lookupEngine, TunnelPool tunnelPool) {
         this.netDB = networkDatabase;
         this.router = router;
         this.recievedMessage = recievedMessage;
@@ -93,7 +106,9 @@ public class RouterServiceThread implements Runnable {
         this.cstMessages = cstMessages;
         this.elgamalPrivateKey = elgamalPrivateKey;
         this.signingPrivateKey = signingPrivateKey;
-        this.nonceCache = new NonceCache(Integer.BYTES, 60);
+        this.transport = transport;
+        this.lookupEngine = lookupEngine;
+        this.tunnelPool = tunnelPool;
     }
 
     /**
@@ -107,14 +122,7 @@ public class RouterServiceThread implements Runnable {
             // return;// corrupt message - may want to add response for reliable send in
             // future
         }
-        //get messageID as bytes
-        byte[] msgID = ByteBuffer.allocate(Integer.BYTES).putInt(recievedMessage.getMsgID()).array();
-        if (nonceCache.containsNonce(msgID)) {
-            log.warn("Received repeated message ID dropping message");
-            return;
-        }
-        nonceCache.addNonce(msgID);
-
+        // repeated message IDs are dropped by the router's ReplayFilter before we are dispatched
         if (recievedMessage.getExpiration() < System.currentTimeMillis()) {
             log.info("Received expired message");
             return; // message has expired throw away
@@ -184,12 +192,10 @@ public class RouterServiceThread implements Runnable {
 
         // get the tunnel from the tunnel manager
 
-        if (cstMessages.containsKey(tunnelID)) {
+        // endpoint may have expired while session still had its queue
+        if (cstMessages.containsKey(tunnelID) && tunnelObject instanceof TunnelEndpoint endpoint) {
             EndpointPayload payload = new EndpointPayload(tunnelData.getPayload());
 
-            //fuck it lets do it (this is a hacky cast should work hjahahahahah)
-            TunnelEndpoint endpoint = (TunnelEndpoint) tunnelObject;
-
             payload.finalLayerDecrypt(endpoint.getLayerKey(), endpoint.getIV()); // different values so we gotta use this
             ConcurrentLinkedQueue<I2CPMessage> queue = cstMessages.get(tunnelID);
             queue.add(new PayloadMessage(0, 0, payload.getEncMessage()));
@@ -255,19 +261,14 @@ public class RouterServiceThread implements Runnable {
             // inboundTunnel.getTunnelObject(tunnelBuildReply.getTunnelID());
             RouterInfo routerInfo = inboundTunnel.getTunnelObject(tunnelID);
 
-            // get message queue for client
-            ConcurrentLinkedQueue<I2CPMessage> cstMsg = cstMessages.get(tunnelBuildReply.getTunnelID());
-            if (cstMsg == null) {
-                log.error("Client did not create queue under the right ID");
+            // lease expires with the tunnel
+            Lease lease = new Lease(routerInfo.getRouterID(), inboundTunnel.getGatewayTunnelID(),
+                    inboundTunnel.getExpiration());
+            // tunnel is ready, pool gives its lease to the next client session
+            if (!tunnelPool.inboundBuilt(tunnelBuildReply.getTunnelID(), lease)) {
+                log.error("Inbound tunnel was not built by tunnel pool " + tunnelBuildReply.getTunnelID());
                 return false;
             }
-            Lease lease = new Lease(routerInfo.getRouterID(), inboundTunnel.getGatewayTunnelID());
-
-            ArrayList<Lease> leases = new ArrayList<>();
-            leases.add(lease);
-            // give client lease for this inbound tunnel
-            RequestLeaseSet requestLeaseSet = new RequestLeaseSet(0, leases);
-            cstMsg.add(requestLeaseSet);
         }
 
         return true;
@@ -277,31 +278,35 @@ public class RouterServiceThread implements Runnable {
         // iterate through all the records and compare the first 16 bytes of the hash
         // to the toPeer field of the record, if they match we have found the correct
         // record for us
-        //our record
-        String base64ourIdent = Base64.getEncoder().encodeToString(Arrays.copyOf(router.getHash(), 16));
+        byte[] ourToPeer = Arrays.copyOf(router.getHash(), 16);
 
-        // for each record in the tunnel build message attempt to decrypt it with our secret key
-        // if it decrypts and too peer matches we found our record -- other wise we replace it back with its original encrypted self
-        // and move on to the next record
+        // records carry a hint of who they are for, layered like the record so it is only in cleartext on our own
+        // record once earlier hops peeled their layers, we only decrypt that record, records without a hint
+        // are trial decrypted with our secret key until toPeer matches
+        // a failed decrypt is done on a copy so records of other peers are left as they were
+        ArrayList<TunnelBuild.Record> records = tunnelBuild.getRecords();
         TunnelBuild.Record ourRecord = null;
-        for (TunnelBuild.Record record : tunnelBuild.getRecords()) {
-            TunnelBuild.Record temp = new TunnelBuild.Record(record); // unsure if this will deserialze properly
+        for (int index = 0; index < records.size(); index++) {
+            TunnelBuild.Record record = records.get(index);
+            if (!record.mayBeFor(router.getHash()))
+                continue; // hint says record is for another peer, no need to decrypt it
+
+            TunnelBuild.Record decrypted = new TunnelBuild.Record(record);
             try {
-            record.hybridDecrypt(elgamalPrivateKey);
+                decrypted.hybridDecrypt(elgamalPrivateKey);
             } catch (Exception e) {
                 continue; // skip this record if we can't decrypt its expected
             }
-            if (Arrays.equals(record.getToPeer(), Base64.getDecoder().decode(base64ourIdent))) {
-                ourRecord = record;
+            if (Arrays.equals(decrypted.getToPeer(), ourToPeer)) {
+                ourRecord = decrypted;
+                records.set(index, ourRecord);
                 // once we find our record we can aes decrypt every record after it
                 // and then break out of the loop
-                for (int i = tunnelBuild.getRecords().indexOf(record) + 1; i < tunnelBuild.getRecords().size(); i++) {
-                    TunnelBuild.Record nextRecord = tunnelBuild.getRecords().get(i);
-                    nextRecord.layeredDecrypt(ourRecord.getReplyKey(), ourRecord.getReplyIv());
+                for (int i = index + 1; i < records.size(); i++) {
+                    records.get(i).layeredDecrypt(ourRecord.getReplyKey(), ourRecord.getReplyIv());
                 }
                 break;
             }
-            record = new TunnelBuild.Record(temp); // create a new instance to ensure it's a copy
         }
 
         // grrreat now we have our keys! from here we need to aes decrypt each record after this one with the reply key
@@ -351,7 +356,6 @@ public class RouterServiceThread implements Runnable {
         } else {
             try {
                 // forward build request to next hop
-                I2NPSocket nextHopSocket = new I2NPSocket();
                 I2NPHeader header = new I2NPHeader(I2NPHeader.TYPE.TUNNELBUILD, random.nextInt(),
                         System.currentTimeMillis() + 100, tunnelBuild);
                 RouterInfo nextRouter = validatePeerRouter(ourRecord.getNextIdent());
@@ -362,8 +366,7 @@ public class RouterServiceThread implements Runnable {
                     return;
                 }
 
-                nextHopSocket.sendMessage(header, nextRouter);
-                nextHopSocket.close();
+                transport.sendMessage(header, nextRouter);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -385,18 +388,13 @@ public class RouterServiceThread implements Runnable {
         }
 
         // forward message to next hop
-        I2NPSocket nextHopSocket = null;
         try {
-            nextHopSocket = new I2NPSocket();
             // create new header
             I2NPHeader header = new I2NPHeader(I2NPHeader.TYPE.TUNNELBUILDREPLY, random.nextInt(),
                     System.currentTimeMillis() + 100, replyMessage);
-            nextHopSocket.sendMessage(header, nextRouter); // send directly to router
+            transport.sendMessage(header, nextRouter); // send directly to router
             // this may need to changed in final implementation for security reasons
-            nextHopSocket.close();
         } catch (IOException e) {
-            if (nextHopSocket != null)
-                nextHopSocket.close();
             log.error("Error sending TunnelBuildReply message: " + e.getMessage());
         }
         return;
@@ -480,7 +478,8 @@ public class RouterServiceThread implements Runnable {
                     record.getNextTunnel(),
                     router,
                     record.getHopInfo(),
-                    netDB);
+                    netDB,
+                    transport);
             tunnelManager.addTunnelObject(record.getReceiveTunnel(), tunnelGateway);
             log.info("Added tunnel gateway for tunnel ID: " + record.getReceiveTunnel());
         } else if (record.getPosition() == TunnelBuild.Record.TYPE.ENDPOINT) {
@@ -493,7 +492,8 @@ public class RouterServiceThread implements Runnable {
                     record.getReplyIv(),
                     router.getHash(),
                     router.getPort(),
-                    netDB);
+                    netDB,
+                    transport);
             tunnelManager.addTunnelObject(record.getReceiveTunnel(), tunnelEndpoint);
             log.info("Added tunnel endpoint for tunnel ID: " + record.getReceiveTunnel());
         } else {
@@ -506,7 +506,8 @@ public class RouterServiceThread implements Runnable {
                     record.getReplyIv(),
                     record.getNextIdent(),
                     record.getNextTunnel(),
-                    netDB);
+                    netDB,
+                    transport);
             tunnelManager.addTunnelObject(record.getReceiveTunnel(), tunnelParticipant);
             log.info("Added tunnel participant for tunnel ID: " + record.getReceiveTunnel());
         }
@@ -519,9 +520,8 @@ public class RouterServiceThread implements Runnable {
             // check if we dont know where to send message to
             if (requestRouter == null) {
                 log.trace("Could not find peer: " + Base64.getEncoder().encodeToString(lookup.getFromHash()));
-                // attempt to find peer for reply we will wait 10 milli seconds
-                findPeerRecordForReply(50, lookup.getFromHash());
-                requestRouter = netDB.lookup(lookup.getFromHash());
+                // attempt to find peer for reply we will wait up to 50 milli seconds
+                requestRouter = findPeerRecordForReply(50, lookup.getFromHash()).join();
                 // if we still do not know give up
                 if (requestRouter == null) {
                     log.warn("Could not find who sent lookup even after asking peers fromHash: "
@@ -586,14 +586,9 @@ public class RouterServiceThread implements Runnable {
         // assuming here it is RouterInfo might need to change later once leaseSets are
         // implemented
         RouterInfo requestRouterInfo = (RouterInfo) requestRouter;
-        I2NPSocket respondSock = null;
         try {
-            respondSock = new I2NPSocket();
-            respondSock.sendMessage(result, requestRouterInfo);
-            respondSock.close();
+            transport.sendMessage(result, requestRouterInfo);
         } catch (IOException e) {
-            if (respondSock != null)
-                respondSock.close();
             System.err.println("could not send message I/O error " + e.getMessage());
         }
         log.trace("Response message is " + result.toJSONType().getFormattedJSON());
@@ -601,53 +596,10 @@ public class RouterServiceThread implements Runnable {
     }
 
     private void handleSearchReply(DatabaseSearchReply searchReply) {
-        // query closest peers to see if they have the hash
-        ArrayList<byte[]> peerHash = searchReply.getPeerHashes();
-        I2NPSocket peerSocket = null;
-        try {
-            peerSocket = new I2NPSocket();
-        } catch (SocketException e) {
-            log.warn("RST: Could not connect on socket " + e.getMessage());
-            return;
-        }
-
-        for (byte[] hash : peerHash) {
-            Record peerRecord = netDB.lookup(hash);
-
-            if (peerRecord == null) {
-                // attempt to find peer lets wait 5 ms for each reply
-                findPeerRecordForReply(10, hash);
-            }
-
-            // check if we found peer if so send lookup message
-            peerRecord = netDB.lookup(hash);
-            // if still null let's just try the next peer
-            if (peerRecord == null) {
-                continue;
-            }
-
-            switch (peerRecord.getRecordType()) {
-                case ROUTERINFO -> {
-                    // send lookup request to peer
-                    RouterInfo peerRouterInfo = (RouterInfo) peerRecord;
-
-                    try {
-                        // we will decrease expiration so recursive search expires
-                        I2NPHeader lookupMessage = new I2NPHeader(I2NPHeader.TYPE.DATABASELOOKUP, random.nextInt(),
-                                recievedMessage.getExpiration() - 10,
-                                new DatabaseLookup(searchReply.getKey(), router.getHash()));
-                        peerSocket.sendMessage(lookupMessage, peerRouterInfo);
-                    } catch (IOException e) {
-                        log.warn("Could not connect/send message to peer" + e.getMessage());
-                        peerSocket.close();
-                    }
-                }
-                case LEASESET -> {
-                    // todo add support for leasesets
-                }
-            }
-        }
-        peerSocket.close();
+        // lookup engine queries the peers in the reply closest to the key and marks the replier seen if we asked it
+        if (!lookupEngine.handleSearchReply(searchReply))
+            log.trace("Search reply for a lookup which already finished from: "
+                    + Base64.getEncoder().encodeToString(searchReply.getFromHash()));
     }
 
     private void handleStore(DatabaseStore store) {
@@ -655,14 +607,6 @@ public class RouterServiceThread implements Runnable {
         // friends(Routers)
         if (isFloodFill && (netDB.lookup(store.getKey()) == null)) {
             ArrayList<RouterInfo> closestPeers = netDB.getKClosestRouterInfos(store.getKey(), 3);
-            I2NPSocket floodSock = null;
-            try {
-                // create socket to send store request to peers
-                floodSock = new I2NPSocket();
-            } catch (SocketException e) {
-                System.err.println("Could not connect to peers " + e.getMessage());
-            }
-
             // send store request to nearest peers
             for (RouterInfo peer : closestPeers) {
                 log.trace("Sending flood store to peer: " + peer.getPort());
@@ -672,15 +616,11 @@ public class RouterServiceThread implements Runnable {
                         System.currentTimeMillis() + 100, new DatabaseStore(store.getRecord()));
                 // send message to peer
                 try {
-                    floodSock.sendMessage(peerMSG, peer);
+                    transport.sendMessage(peerMSG, peer);
                 } catch (IOException e) {
                     log.error("RST: Issue in floodfill connecting to peer ", e);
                 }
             }
-            // close socket if created
-            if (floodSock != null)
-                floodSock.close();
-
         }
         // add Record to our netDB
         netDB.store(store.getRecord());
@@ -690,60 +630,30 @@ public class RouterServiceThread implements Runnable {
             int tunnelID = store.getReplyTunnelID(); // this is set in setReply but setReply is never called so this is
                                                      // null
             byte[] replyGatewayHash = store.getReplyGateway(); // see prev comment
-            try {
-                I2NPSocket replySock = new I2NPSocket();
-                I2NPHeader replyMessage = new I2NPHeader(I2NPHeader.TYPE.DELIVERYSTATUS, random.nextInt(),
-                        System.currentTimeMillis() + 100, deliveryStatus);
-                // send delivery status directly to the router, no tunnels (chicken and egg?)
-                // uhhhhh i think i can make tunnels before this? maybe? idk
-                // well actually were doing a direct query to this router anyways so a direct
-                // reply is fine
-
-            } catch (SocketException e) {
-                // TODO Auto-generated catch block
-                e.printStackTrace();
-            }
+            I2NPHeader replyMessage = new I2NPHeader(I2NPHeader.TYPE.DELIVERYSTATUS, random.nextInt(),
+                    System.currentTimeMillis() + 100, deliveryStatus);
+            // send delivery status directly to the router, no tunnels (chicken and egg?)
+            // uhhhhh i think i can make tunnels before this? maybe? idk
+            // well actually were doing a direct query to this router anyways so a direct
+            // reply is fine
 
         }
 
     }
 
     /**
-     * Attempt to find peer to reply to them, we will do this by sending lookups to
-     * close routers, we will wait some time
-     * to allow network to search for record then we will try again
+     * Attempt to find peer to reply to them, the lookup engine asks the routers
+     * closest to them, the returned future completes as soon as one of them gives
+     * us the record
      * 
-     * @param msToWait milliseconds we want to wait for reply to come in from
+     * @param msToWait milliseconds we are willing to wait for reply to come in from
      *                 routers we know about
      * @param fromHash Hash of peer we need information about
+     * @return Future completed with record of peer or null if it was not found in time
      */
-    private void findPeerRecordForReply(int msToWait, byte[] fromHash) {
-        // we will ask two of our buddies to see if we could find info to send to
-        // information back to this router
-        ArrayList<RouterInfo> closestPeers = netDB.getKClosestRouterInfos(fromHash, 3);
-        I2NPSocket peerSock = null;
-        log.trace("Going to ask " + closestPeers.size());
-        try {
-            peerSock = new I2NPSocket();
-            for (RouterInfo peer : closestPeers) {
-
-                log.trace("Asking peer port: " + peer.getPort() + " to find: "
-                        + Base64.getEncoder().encodeToString(fromHash));
-                I2NPHeader peerLookup = new I2NPHeader(I2NPHeader.TYPE.DATABASELOOKUP, random.nextInt(),
-                        System.currentTimeMillis() + 100, new DatabaseLookup(fromHash, router.getHash()));
-                peerSock.sendMessage(peerLookup, peer);
-            }
-
-            Thread.sleep(msToWait); // wait for results
-            peerSock.close();
-        } catch (IOException e) {
-            log.warn("Could not connect to peers" + e);
-            if (peerSock != null)
-                peerSock.close(); // close sock if possible
-        } catch (InterruptedException e) {
-            log.warn("Sleep was interrupted");
-            peerSock.close();
-        }
+    private CompletableFuture<Record> findPeerRecordForReply(int msToWait, byte[] fromHash) {
+        log.trace("Looking up peer: " + Base64.getEncoder().encodeToString(fromHash));
+        return lookupEngine.lookup(fromHash, msToWait);
     }
 
     /**
@@ -756,8 +666,7 @@ public class RouterServiceThread implements Runnable {
     private RouterInfo validatePeerRouter(byte[] hash) {
         Record record = netDB.lookup(hash);
         if (record == null || record.getRecordType() == Record.RecordType.LEASESET) {
-            findPeerRecordForReply(100, hash); // if record is bad ask our friends to find proper one
-            record = netDB.lookup(hash);
+            record = findPeerRecordForReply(100, hash).join(); // if record is bad ask our friends to find proper one
         }
         if (record == null || record.getRecordType() == Record.RecordType.LEASESET) // if still bad return null
             return null;
@@ -1,7 +1,9 @@
 package common.I2P.tunnels;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Set;
 
 import javax.crypto.SecretKey;
 
@@ -12,29 +14,66 @@ import common.I2P.NetworkDB.RouterInfo;
 public class Tunnel {
     // array list of router info
     private ArrayList<TunnelItem> routers;
+    // hops indexed by their tunnel id so replies are matched without scanning
+    private HashMap<Integer, TunnelItem> hopsByID;
+    // time tunnel was created in milliseconds
+    private final long created;
 
     public Tunnel() {
         this.routers = new ArrayList<>();
+        this.hopsByID = new HashMap<>();
+        this.created = System.currentTimeMillis();
     }
 
     public Tunnel(ArrayList<TunnelItem> routers) {
         this.routers = routers;
+        this.hopsByID = new HashMap<>();
+        for (TunnelItem item : routers)
+            hopsByID.putIfAbsent(item.getTunnelID(), item);
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Time tunnel was created in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * @return Time tunnel expires in milliseconds
+     */
+    public long getExpiration() {
+        return created + TunnelManager.TUNNEL_LIFETIME_MILLIS;
+    }
+
+    /**
+     * Check if tunnel has outlived {@link TunnelManager#TUNNEL_LIFETIME_MILLIS}
+     * @param now Current time in milliseconds
+     * @return true if tunnel should no longer be used
+     */
+    public boolean isExpired(long now) {
+        return now >= getExpiration();
     }
 
     public void addTunnelObject(Integer tunnelID, RouterInfo router, SecretKey replyKey, byte[] replyIv) {
         // Add a TunnelObject to the tunnel
         TunnelItem tunnelItem = new TunnelItem(tunnelID, router, replyKey, replyIv);
         routers.add(tunnelItem);
+        hopsByID.putIfAbsent(tunnelID, tunnelItem);
     }
 
     public RouterInfo getTunnelObject(int tunnelObjectID) {
         // Get the router info for the given tunnel object ID
-        for (TunnelItem item : routers) {
-            if (item.getTunnelID() == tunnelObjectID) {
-                return item.getRouterInfo();
-            }
-        }
-        return null; // not found
+        TunnelItem item = hopsByID.get(tunnelObjectID);
+        return item == null ? null : item.getRouterInfo(); // null if not found
+    }
+
+    /**
+     * @return Tunnel IDs of every hop in the tunnel
+     */
+    public Set<Integer> getHopTunnelIDs() {
+        return Collections.unmodifiableSet(hopsByID.keySet());
     }
 
     public RouterInfo getTunnelObjectAtPos(int pos) {
@@ -3,11 +3,10 @@ package common.I2P.tunnels;
 import common.I2P.I2NP.*;
 import common.I2P.NetworkDB.NetDB;
 import common.I2P.NetworkDB.RouterInfo;
-import common.transport.I2NPSocket;
+import common.transport.OutboundTransport;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
-import java.net.SocketException;
 import java.security.SecureRandom;
 
 /**
@@ -17,6 +16,7 @@ public class TunnelEndpoint extends TunnelObject {
     private byte[] replyRouter;
     private Integer replyTunnelID;
     private NetDB netDB;
+    private OutboundTransport transport;
 
     /**
      * Create Tunnel Endpoint
@@ -29,13 +29,16 @@ public class TunnelEndpoint extends TunnelObject {
      * @param replyRouter         RouterID hash of the inbound gateway of the tunnel
      *                            to send the reply through
      * @param replyTunnelID       Integer TunnelID on next hop
+     * @param transport           Transport used to send messages on
      */
     public TunnelEndpoint(Integer tunnelID, SecretKey tunnelEncryptionKey, byte[] layerIv, SecretKey tunnelIVKey,
-            SecretKey replyKey, byte[] replyIV, byte[] replyRouter, Integer replyTunnelID, NetDB netDB) {
+            SecretKey replyKey, byte[] replyIV, byte[] replyRouter, Integer replyTunnelID, NetDB netDB,
+            OutboundTransport transport) {
         super(TYPE.ENDPOINT, tunnelID, tunnelEncryptionKey, layerIv, tunnelIVKey, replyKey, replyIV);
         this.replyRouter = replyRouter; // uhhhh
         this.replyTunnelID = replyTunnelID;
         this.netDB = netDB; // Initialize with actual NetDB instance if needed
+        this.transport = transport;
     }
 
     @Override
@@ -73,14 +76,9 @@ public class TunnelEndpoint extends TunnelObject {
         // - seth
         I2NPHeader header = new I2NPHeader(I2NPHeader.TYPE.TUNNELDATA, msgID, System.currentTimeMillis() + 100, tdm);
 
-        I2NPSocket socket;
         try {
-            socket = new I2NPSocket();
             RouterInfo routerInfo = (RouterInfo) netDB.lookup(payload.getRouterID());
-            socket.sendMessage(header, routerInfo);
-        } catch (SocketException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            transport.sendMessage(header, routerInfo);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -1,35 +1,78 @@
 package common.I2P.tunnels;
 
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.SecretKey;
 
 import common.I2P.IDs.RouterID;
+import common.I2P.NetworkDB.Lease;
+import common.Logger;
 
 public class TunnelManager {
+    /**
+     * Milliseconds a tunnel is used for after it is built, I2P uses 10 minutes
+     */
+    public static final long TUNNEL_LIFETIME_MILLIS = Lease.LIFETIME_MILLIS;
+    /**
+     * Milliseconds between sweeps removing expired tunnels
+     */
+    private static final long EXPIRE_INTERVAL_MILLIS = 30_000L;
+
     // tunnel lists for inbound and outbound tunnels
     private ConcurrentHashMap<Integer, Tunnel> inboundTunnels;
     private ConcurrentHashMap<Integer, Tunnel> outboundTunnels;
+    // tunnel id of every hop of an inbound tunnel to the id the tunnel is stored under
+    private ConcurrentHashMap<Integer, Integer> inboundHopIndex;
 
     // tunnel objects the router is comprised of
     private ConcurrentHashMap<Integer, TunnelObject> tunnelObjects;
 
+    // number of tunnels and tunnel objects removed because they expired
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    // removes expired tunnels so key material of old tunnels is not kept forever
+    private final ScheduledExecutorService expirer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "TunnelManager-expirer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Logger log = Logger.getInstance();
+
     /**
-     * TunnelManager constructor
+     * TunnelManager constructor, expired tunnels are not removed until {@link #start()}
      */
     public TunnelManager() {
         inboundTunnels = new ConcurrentHashMap<>();
         outboundTunnels = new ConcurrentHashMap<>();
+        inboundHopIndex = new ConcurrentHashMap<>();
         tunnelObjects = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Start removing expired tunnels in the background
+     */
+    public void start() {
+        expirer.scheduleWithFixedDelay(this::removeExpired, EXPIRE_INTERVAL_MILLIS, EXPIRE_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Add an inbound tunnel to the list of inbound tunnels
      * @param tunnelID
      * @param tunnel
      */
     public void addInboundTunnel(Integer tunnelID, Tunnel tunnel) {
-        inboundTunnels.put(tunnelID, tunnel);
+        Tunnel replaced = inboundTunnels.put(tunnelID, tunnel);
+        if (replaced != null)
+            unindexInbound(tunnelID, replaced);
+        for (Integer hopID : tunnel.getHopTunnelIDs())
+            inboundHopIndex.put(hopID, tunnelID);
     }
 
     /**
@@ -50,13 +93,10 @@ public class TunnelManager {
      */
     public int findAssociatedTunnel(int tunnelObjectID) {
         // return the tunnelID of the tunnel that contains the tunnelObjectID
-        for (Integer tunnelID : inboundTunnels.keySet()) {
-            Tunnel tunnel = inboundTunnels.get(tunnelID);
-            if (tunnel.getTunnelObject(tunnelObjectID) != null) {
-                return tunnelID;
-            }
-        }
-        return -1; // not found
+        Integer tunnelID = inboundHopIndex.get(tunnelObjectID);
+        if (tunnelID == null || !inboundTunnels.containsKey(tunnelID))
+            return -1; // not found
+        return tunnelID;
     }
 
     public Tunnel getInboundTunnel(Integer tunnelID) {
@@ -72,7 +112,17 @@ public class TunnelManager {
     }
 
     public void removeInboundTunnel(Integer tunnelID) {
-        inboundTunnels.remove(tunnelID);
+        Tunnel removed = inboundTunnels.remove(tunnelID);
+        if (removed != null)
+            unindexInbound(tunnelID, removed);
+    }
+
+    /**
+     * Remove hops of an inbound tunnel from the hop index, hops now owned by another tunnel are kept
+     */
+    private void unindexInbound(Integer tunnelID, Tunnel tunnel) {
+        for (Integer hopID : tunnel.getHopTunnelIDs())
+            inboundHopIndex.remove(hopID, tunnelID);
     }
 
     public void removeOutboundTunnel(Integer tunnelID) {
@@ -95,4 +145,67 @@ public class TunnelManager {
         return tunnelObjects;
     }
 
+    public int getInboundTunnelCount() {
+        return inboundTunnels.size();
+    }
+
+    public int getOutboundTunnelCount() {
+        return outboundTunnels.size();
+    }
+
+    /**
+     * @return Number of tunnels this router is a gateway, participant or endpoint of
+     */
+    public int getTunnelObjectCount() {
+        return tunnelObjects.size();
+    }
+
+    /**
+     * @return Number of tunnels and tunnel objects removed because they expired
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Remove tunnels and tunnel objects which have outlived {@link #TUNNEL_LIFETIME_MILLIS}
+     *
+     * @return Number of entries removed
+     */
+    int removeExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        try {
+            for (Map.Entry<Integer, TunnelObject> entry : tunnelObjects.entrySet()) {
+                if (entry.getValue().isExpired(now) && tunnelObjects.remove(entry.getKey(), entry.getValue()))
+                    removed++;
+            }
+            for (Map.Entry<Integer, Tunnel> entry : inboundTunnels.entrySet()) {
+                if (entry.getValue().isExpired(now) && inboundTunnels.remove(entry.getKey(), entry.getValue())) {
+                    unindexInbound(entry.getKey(), entry.getValue());
+                    removed++;
+                }
+            }
+            removed += removeExpired(outboundTunnels, now);
+        } catch (RuntimeException e) {
+            // keep sweeping on schedule
+            log.error("TunnelManager: Could not remove expired tunnels", e);
+        }
+
+        expiredCount.addAndGet(removed);
+        if (removed > 0 && log.isEnabled(Logger.Level.DEBUG))
+            log.debug("TunnelManager: Removed " + removed + " expired tunnels, " + getTunnelObjectCount()
+                    + " participating " + getInboundTunnelCount() + " inbound " + getOutboundTunnelCount()
+                    + " outbound left");
+        return removed;
+    }
+
+    private static int removeExpired(ConcurrentHashMap<Integer, Tunnel> tunnels, long now) {
+        int removed = 0;
+        for (Map.Entry<Integer, Tunnel> entry : tunnels.entrySet()) {
+            if (entry.getValue().isExpired(now) && tunnels.remove(entry.getKey(), entry.getValue()))
+                removed++;
+        }
+        return removed;
+    }
 }
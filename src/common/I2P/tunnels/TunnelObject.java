@@ -47,6 +47,10 @@ public abstract class TunnelObject {
      * Integer of tunnel id
      */
     protected Integer tunnelID;
+    /**
+     * Time this router joined the tunnel in milliseconds
+     */
+    protected final long created;
 
     /**
      * Create Abstract tunnel with necessary fields
@@ -66,6 +70,23 @@ public abstract class TunnelObject {
         this.tunnelIVKey = tunnelIVKey;
         this.replyKey = replyKey;
         this.replyIV = replyIV;
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Time this router joined the tunnel in milliseconds
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Check if tunnel has outlived {@link TunnelManager#TUNNEL_LIFETIME_MILLIS}
+     * @param now Current time in milliseconds
+     * @return true if tunnel should no longer be used
+     */
+    public boolean isExpired(long now) {
+        return now - created >= TunnelManager.TUNNEL_LIFETIME_MILLIS;
     }
 
     /**
@@ -3,11 +3,10 @@ package common.I2P.tunnels;
 import common.I2P.I2NP.*;
 import common.I2P.NetworkDB.NetDB;
 import common.I2P.NetworkDB.RouterInfo;
-import common.transport.I2NPSocket;
+import common.transport.OutboundTransport;
 
 import javax.crypto.SecretKey;
 import java.io.IOException;
-import java.net.SocketException;
 import java.security.SecureRandom;
 
 /**
@@ -28,6 +27,11 @@ public class TunnelParticipant extends TunnelObject{
      */
     private NetDB netDB;
 
+    /**
+     * Transport used to send messages to the next hop
+     */
+    private OutboundTransport transport;
+
     /**
      * Create TunnelGateway
      * @param tunnelID Integer ID of tunnel
@@ -37,13 +41,16 @@ public class TunnelParticipant extends TunnelObject{
      * @param replyIV byte[] reply IV
      * @param nextHop RouterID for next Router in path
      * @param nextTunnelID Integer TunnelID on next hop
+     * @param transport Transport used to send messages to the next hop
      */
     public TunnelParticipant(Integer tunnelID, SecretKey tunnelEncryptionKey, byte[] layerIv, SecretKey tunnelIVKey,
-                             SecretKey replyKey, byte[] replyIV, byte[] nextHop, Integer nextTunnelID, NetDB netDB) {
+                             SecretKey replyKey, byte[] replyIV, byte[] nextHop, Integer nextTunnelID, NetDB netDB,
+                             OutboundTransport transport) {
         super(TYPE.PARTICIPANT, tunnelID, tunnelEncryptionKey, layerIv, tunnelIVKey, replyKey, replyIV);
         this.nextHop = nextHop;
         this.nextTunnelID = nextTunnelID;
         this.netDB = netDB;
+        this.transport = transport;
     }
 
     @Override
@@ -67,13 +74,8 @@ public class TunnelParticipant extends TunnelObject{
         int msgID = new SecureRandom().nextInt(); // generate a random message ID, with secure random
         I2NPHeader header = new I2NPHeader(I2NPHeader.TYPE.TUNNELBUILDREPLY, msgID, System.currentTimeMillis() + 100, message);
         try {
-            I2NPSocket socket = new I2NPSocket();
             RouterInfo nextRouter = (RouterInfo) netDB.lookup(nextHop); // this is a dangerous cast could crash here
-            socket.sendMessage(header, nextRouter);
-            socket.close(); // make sure to close socket
-        } catch (SocketException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            transport.sendMessage(header, nextRouter);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -100,15 +102,9 @@ public class TunnelParticipant extends TunnelObject{
             // create header for the message
             I2NPHeader header = new I2NPHeader(I2NPHeader.TYPE.TUNNELDATA, msgID, System.currentTimeMillis() + 100,
                     encryptedMessage);
-            I2NPSocket socket = new I2NPSocket();
             RouterInfo nextRouter = (RouterInfo) netDB.lookup(nextHop); // this is a dangerous cast could crash here
                                                                         // should be fixed -seth
-            socket.sendMessage(header, nextRouter);
-
-            socket.close(); // make sure to close socket
-        } catch (SocketException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
+            transport.sendMessage(header, nextRouter);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
@@ -0,0 +1,612 @@
+package common.I2P.tunnels;
+
+import common.I2P.I2NP.I2NPHeader;
+import common.I2P.I2NP.TunnelBuild;
+import common.I2P.I2NP.TunnelHopInfo;
+import common.I2P.NetworkDB.Lease;
+import common.I2P.NetworkDB.NetDB;
+import common.I2P.NetworkDB.RouterInfo;
+import common.Logger;
+import common.transport.I2CP.I2CPMessage;
+import common.transport.I2CP.RequestLeaseSet;
+import common.transport.I2CP.SessionStatus;
+import common.transport.OutboundTransport;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Builds tunnels ahead of time so client sessions are given tunnels as soon as they are created
+ *
+ * <p>The pool keeps {@code inboundQuantity} built inbound tunnels which are not given to a client yet, these are the
+ * router's exploratory tunnels, and {@code outboundQuantity} outbound tunnels in the {@link TunnelManager} which every
+ * session sends through. A background task builds replacements {@link #REBUILD_LEAD_MILLIS} before tunnels reach
+ * {@link TunnelManager#TUNNEL_LIFETIME_MILLIS} and gives up on builds with no reply after
+ * {@link #BUILD_TIMEOUT_MILLIS}. Expired tunnels are removed from the {@link TunnelManager} by its expirer, the pool
+ * only stops routing session messages to them.</p>
+ *
+ * <p>Inbound tunnels of a session are replaced by ready tunnels {@link #REBUILD_LEAD_MILLIS} before they expire, a
+ * {@link RequestLeaseSet} with the session's new leases is put in its queue so the client signs and publishes a new
+ * LeaseSet. Old tunnels keep delivering to the session until they expire. A session left with no inbound tunnels is
+ * sent {@link SessionStatus.Status#DESTROYED} through its queue.</p>
+ *
+ * <p>An inbound tunnel is ready once its build reply reaches us at its endpoint, see
+ * {@link #inboundBuilt(int, Lease)}. Build replies of outbound tunnels are not processed so an outbound tunnel is used
+ * as soon as its build is sent.</p>
+ */
+public class TunnelPool {
+    /**
+     * Default number of inbound and outbound tunnels kept
+     */
+    public static final int DEFAULT_QUANTITY = 2;
+    /**
+     * Milliseconds before a tunnel expires that its replacement is built
+     */
+    static final long REBUILD_LEAD_MILLIS = 2 * 60 * 1000;
+    /**
+     * Milliseconds to wait for the reply of an inbound tunnel build before building another
+     */
+    private static final long BUILD_TIMEOUT_MILLIS = 10 * 1000;
+    /**
+     * Milliseconds between checks that the pool has enough tunnels
+     */
+    private static final long REPLENISH_INTERVAL_MILLIS = 1000;
+
+    /**
+     * RouterInfo of this router
+     */
+    private final RouterInfo router;
+    /**
+     * Network database peers of tunnels are picked from
+     */
+    private final NetDB netDB;
+    /**
+     * Tunnel manager built tunnels are added to
+     */
+    private final TunnelManager tunnelManager;
+    /**
+     * Transport build messages are sent on
+     */
+    private final OutboundTransport transport;
+    /**
+     * Queues of client sessions keyed under endpoint tunnel ID of their inbound tunnels
+     */
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> clientMessages;
+    /**
+     * Number of inbound tunnels kept ready
+     */
+    private final int inboundQuantity;
+    /**
+     * Number of outbound tunnels kept
+     */
+    private final int outboundQuantity;
+    /**
+     * Inbound tunnels waiting for their build reply keyed under endpoint tunnel ID
+     */
+    private final ConcurrentHashMap<Integer, PooledTunnel> pendingInbound = new ConcurrentHashMap<>();
+    /**
+     * Built inbound tunnels not given to a client, most recently built last
+     */
+    private final LinkedBlockingDeque<PooledTunnel> readyInbound = new LinkedBlockingDeque<>();
+    /**
+     * Inbound tunnels given to client sessions keyed under endpoint tunnel ID
+     */
+    private final ConcurrentHashMap<Integer, PooledTunnel> assignedInbound = new ConcurrentHashMap<>();
+    /**
+     * Outbound tunnels keyed under gateway tunnel ID
+     */
+    private final ConcurrentHashMap<Integer, PooledTunnel> outbound = new ConcurrentHashMap<>();
+    /**
+     * Lease of most recently built inbound tunnel, outbound build replies are sent back through it
+     */
+    private volatile Lease replyLease;
+    /**
+     * Runs replenishment, builds are never sent from two threads at once
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "TunnelPool");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final SecureRandom random = new SecureRandom();
+    private final Logger log = Logger.getInstance();
+
+    /**
+     * Create tunnel pool, no tunnels are built until {@link #start()}
+     * @param router RouterInfo of this router
+     * @param netDB Network database to pick peers from
+     * @param tunnelManager Tunnel manager of this router
+     * @param transport Transport to send build messages on
+     * @param clientMessages Queues of client sessions keyed under endpoint tunnel ID
+     * @param inboundQuantity Number of inbound tunnels kept ready, also max number given to a session
+     * @param outboundQuantity Number of outbound tunnels kept
+     */
+    public TunnelPool(RouterInfo router, NetDB netDB, TunnelManager tunnelManager, OutboundTransport transport,
+                      ConcurrentHashMap<Integer, ConcurrentLinkedQueue<I2CPMessage>> clientMessages,
+                      int inboundQuantity, int outboundQuantity) {
+        this.router = router;
+        this.netDB = netDB;
+        this.tunnelManager = tunnelManager;
+        this.transport = transport;
+        this.clientMessages = clientMessages;
+        this.inboundQuantity = inboundQuantity;
+        this.outboundQuantity = outboundQuantity;
+    }
+
+    /**
+     * Start building tunnels in the background, should be called once NetDB has peers
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(this::replenish, 0, REPLENISH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Give ready inbound tunnels to a client session, only waits for a build if no tunnel is ready
+     * @param messages Queue messages arriving on the tunnels are delivered to
+     * @param timeoutMillis Max milliseconds to wait if no tunnel is ready
+     * @return Leases of tunnels given to session, empty if no tunnel was built in time
+     */
+    public ArrayList<Lease> acquireInbound(ConcurrentLinkedQueue<I2CPMessage> messages, long timeoutMillis) {
+        ArrayList<Lease> leases = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        try {
+            PooledTunnel tunnel = readyInbound.pollLast();
+            while (tunnel != null && !tunnel.isFresh(now)) {
+                retireInbound(tunnel);
+                tunnel = readyInbound.pollLast();
+            }
+            if (tunnel == null) {
+                log.warn("TunnelPool: No inbound tunnel ready waiting for one to be built");
+                executor.execute(this::replenish);
+                tunnel = readyInbound.pollLast(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            while (tunnel != null) {
+                tunnel.messages = messages;
+                assignedInbound.put(tunnel.endpointTunnelID, tunnel);
+                clientMessages.put(tunnel.endpointTunnelID, messages);
+                leases.add(tunnel.lease);
+                if (leases.size() >= inboundQuantity)
+                    break;
+                tunnel = readyInbound.pollLast();
+                if (tunnel != null && !tunnel.isFresh(now)) {
+                    readyInbound.offerLast(tunnel); // replenish retires it
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // build replacements for tunnels given away
+        executor.execute(this::replenish);
+        return leases;
+    }
+
+    /**
+     * Tear down inbound tunnels of a client session which was destroyed
+     * @param messages Queue of session given to {@link #acquireInbound}, may be null
+     * @return Number of tunnels removed
+     */
+    public int release(ConcurrentLinkedQueue<I2CPMessage> messages) {
+        int released = 0;
+        for (PooledTunnel tunnel : assignedInbound.values()) {
+            if (tunnel.messages != messages || !assignedInbound.remove(tunnel.endpointTunnelID, tunnel))
+                continue;
+            clientMessages.remove(tunnel.endpointTunnelID, messages);
+            retireInbound(tunnel);
+            released++;
+        }
+        return released;
+    }
+
+    /**
+     * Mark inbound tunnel as built once its build reply reaches its endpoint
+     * @param endpointTunnelID Tunnel ID of endpoint on this router
+     * @param lease Lease of tunnel's gateway
+     * @return true if tunnel was being built by this pool
+     */
+    public boolean inboundBuilt(int endpointTunnelID, Lease lease) {
+        PooledTunnel tunnel = pendingInbound.remove(endpointTunnelID);
+        if (tunnel == null)
+            return false;
+        tunnel.lease = lease;
+        replyLease = lease;
+        readyInbound.offerLast(tunnel);
+        log.debug("TunnelPool: Inbound tunnel " + tunnel.gatewayTunnelID + " ready");
+        return true;
+    }
+
+    /**
+     * @return Number of inbound tunnels ready to be given to a session
+     */
+    public int getReadyInboundCount() {
+        return readyInbound.size();
+    }
+
+    /**
+     * @return Number of inbound tunnels given to client sessions which have not expired
+     */
+    public int getAssignedInboundCount() {
+        return assignedInbound.size();
+    }
+
+    /**
+     * @return Number of outbound tunnels built by pool which have not expired
+     */
+    public int getOutboundCount() {
+        return outbound.size();
+    }
+
+    /**
+     * Retire old tunnels and build tunnels until pool has enough that are not close to expiring
+     */
+    private void replenish() {
+        long now = System.currentTimeMillis();
+        try {
+            // builds with no reply were lost somewhere in the tunnel
+            pendingInbound.values().removeIf(tunnel -> {
+                if (now - tunnel.builtAt < BUILD_TIMEOUT_MILLIS)
+                    return false;
+                log.debug("TunnelPool: Inbound tunnel " + tunnel.gatewayTunnelID + " build timed out");
+                return retireInbound(tunnel);
+            });
+            // a client should not be given a tunnel it will soon lose
+            readyInbound.removeIf(tunnel -> !tunnel.isFresh(now) && retireInbound(tunnel));
+            // tunnel manager removes expired tunnels, stop counting them and routing session messages to them
+            outbound.values().removeIf(tunnel -> tunnel.isExpired(now));
+            // renewed first so a session is only destroyed if no tunnel was ready to replace expired ones
+            renewSessions(now);
+            HashSet<ConcurrentLinkedQueue<I2CPMessage>> expiredSessions = new HashSet<>();
+            assignedInbound.values().removeIf(tunnel -> {
+                if (!tunnel.isExpired(now))
+                    return false;
+                clientMessages.remove(tunnel.endpointTunnelID, tunnel.messages);
+                expiredSessions.add(tunnel.messages);
+                return true;
+            });
+            for (ConcurrentLinkedQueue<I2CPMessage> messages : expiredSessions) {
+                if (sessionLeases(messages).isEmpty()) {
+                    log.warn("TunnelPool: Inbound tunnels of session expired before they were replaced");
+                    messages.add(new SessionStatus(0, SessionStatus.Status.DESTROYED));
+                }
+            }
+
+            for (int i = readyInbound.size() + pendingInbound.size(); i < inboundQuantity; i++)
+                buildTunnel(null);
+
+            // replies to outbound builds come back through an inbound tunnel
+            Lease replyTo = replyLease;
+            if (replyTo == null || replyTo.getExpiration() <= now)
+                return;
+            int freshOutbound = 0;
+            for (PooledTunnel tunnel : outbound.values()) {
+                if (tunnel.isFresh(now))
+                    freshOutbound++;
+            }
+            for (int i = freshOutbound; i < outboundQuantity; i++)
+                buildTunnel(replyTo);
+        } catch (RuntimeException e) {
+            // keep replenishing, NetDB may not have enough peers yet
+            log.warn("TunnelPool: Could not build tunnel " + e.getMessage());
+        }
+    }
+
+    /**
+     * Give sessions ready tunnels in place of their tunnels close to expiring, sessions are asked for a new LeaseSet
+     * once all their old tunnels have a replacement. Sessions keep their old tunnels if none are ready, they are
+     * renewed on a later run
+     * @param now Current time
+     */
+    private void renewSessions(long now) {
+        HashSet<ConcurrentLinkedQueue<I2CPMessage>> renewedSessions = new HashSet<>();
+        for (PooledTunnel old : assignedInbound.values()) {
+            if (old.renewed || old.isFresh(now))
+                continue;
+            PooledTunnel replacement = readyInbound.pollLast();
+            if (replacement == null)
+                break; // built below, tried again next run
+            if (!replacement.isFresh(now)) {
+                retireInbound(replacement);
+                continue;
+            }
+            replacement.messages = old.messages;
+            assignedInbound.put(replacement.endpointTunnelID, replacement);
+            clientMessages.put(replacement.endpointTunnelID, replacement.messages);
+            old.renewed = true;
+            renewedSessions.add(old.messages);
+        }
+
+        // session ID is filled in by the session handler
+        for (ConcurrentLinkedQueue<I2CPMessage> messages : renewedSessions) {
+            ArrayList<Lease> leases = sessionLeases(messages);
+            messages.add(new RequestLeaseSet(0, leases));
+            log.debug("TunnelPool: Renewed inbound tunnels of session with " + leases.size() + " leases");
+        }
+    }
+
+    /**
+     * Get leases of a session's inbound tunnels which were not replaced
+     * @param messages Queue of session
+     * @return Leases session should publish
+     */
+    private ArrayList<Lease> sessionLeases(ConcurrentLinkedQueue<I2CPMessage> messages) {
+        ArrayList<Lease> leases = new ArrayList<>();
+        for (PooledTunnel tunnel : assignedInbound.values()) {
+            if (tunnel.messages == messages && !tunnel.renewed)
+                leases.add(tunnel.lease);
+        }
+        return leases;
+    }
+
+    /**
+     * Remove an inbound tunnel and our endpoint of it before it expires
+     * @return always true so it can be used to filter tunnels
+     */
+    private boolean retireInbound(PooledTunnel tunnel) {
+        tunnelManager.removeInboundTunnel(tunnel.gatewayTunnelID);
+        tunnelManager.removeTunnelObject(tunnel.endpointTunnelID);
+        return true;
+    }
+
+    /**
+     * Create a tunnel and send its build message
+     *
+     * @param replyTo Lease of inbound tunnel the build reply is sent through, null to build an inbound tunnel
+     * @return Tunnel being built
+     */
+    private PooledTunnel buildTunnel(Lease replyTo) {
+        // note: AudioStreaming.client destination is not hard set to endpoint of tunnel
+        // it is tacked on to the messge itself so the endpoint knows where to forward
+        boolean isInbound = replyTo == null;
+
+        // hold the records for the tunnel
+        ArrayList<TunnelBuild.Record> records = new ArrayList<>();
+
+        // generate a tunnel id for the tunnel
+        int tunnelID = random.nextInt(1, Integer.MAX_VALUE);
+
+        // generate random number of hops from 3 to 5
+        int numHops = 3; // 3 to 5 hops
+
+        // search netDB by hash of routerID for all closest router to form tunnel with
+        ArrayList<RouterInfo> tempPeers = netDB.getKClosestRouters(router.getHash(), numHops + 1);
+
+        if (tempPeers == null || tempPeers.isEmpty()) {
+            log.warn("Peer list too small - try restarting router could be timing issue");
+            throw new IllegalStateException(
+                    "tempPeers is null or empty. Ensure queryNetDBForRouters returns valid data.");
+        }
+
+        // Because this is an inbound tunnel, we set the last peer in the list to be
+        // this router
+        if (isInbound) {
+            // set last hop to be the router id of this router
+            tempPeers.set(tempPeers.size() - 1, router);
+        } else {
+            // set first hop to be the router id of this router
+            tempPeers.set(0, router);
+        }
+
+        // Generate unique tunnel IDs per hop
+        int[] hopTunnelIDs = new int[tempPeers.size()];
+
+        for (int i = 0; i < tempPeers.size(); i++) {
+            if (i == 0) {
+                hopTunnelIDs[i] = tunnelID; // first hop is the tunnel id
+            } else {
+                hopTunnelIDs[i] = random.nextInt(1, Integer.MAX_VALUE); // random id for the rest of the hops
+            }
+        }
+
+        int sendMessageID = random.nextInt(1, Integer.MAX_VALUE); // unique message id for this message
+        long requestTime = System.currentTimeMillis(); // time of request
+
+        ArrayList<TunnelHopInfo> hopInfo = new ArrayList<>(); // this is for the hops in the tunnel
+
+        // create a map of the peers in the tunnel to their router ids
+        Tunnel potentialTunnel = new Tunnel();
+
+        for (int i = 0; i < tempPeers.size(); i++) {
+            RouterInfo current = tempPeers.get(i);
+
+            byte[] toPeer = Arrays.copyOf(current.getRouterID().getHash(), 16); // only first 16 bytes of the hash
+            int receiveTunnel = hopTunnelIDs[i]; // tunnel id for the tunnel
+
+            SecretKey layerKey = generateAESKey(256);
+            byte[] layerIv = new byte[16];
+            random.nextBytes(layerIv); // generate a random iv for the layer key
+            SecretKey ivKey = generateAESKey(256);
+            SecretKey replyKey = generateAESKey(256);
+
+            byte[] replyIv = new byte[16];
+            random.nextBytes(replyIv);
+
+            potentialTunnel.addTunnelObject(hopTunnelIDs[i], current, replyKey, replyIv); // add the router to the
+                                                                                          // tunnel
+
+            ArrayList<TunnelHopInfo> hopInfoInput = null; // this is for the hops in the tunnel
+
+            boolean replyFlag = false; // this is for the hops in the tunnel - they change this later
+
+            TunnelHopInfo hopInfoItem = new TunnelHopInfo(toPeer, layerKey, layerIv, ivKey,
+                    receiveTunnel);
+            hopInfo.add(hopInfoItem); // add to the front of the list
+
+            TunnelBuild.Record.TYPE position = null;
+
+            RouterInfo next;
+            int nextTunnel = 0; // this is the tunnel id for the next hop default to 0 for outbound creation
+            if (i == 0) {
+                position = TunnelBuild.Record.TYPE.GATEWAY;
+                hopInfoInput = new ArrayList<>(hopInfo);
+                next = tempPeers.get(i + 1);
+                nextTunnel = hopTunnelIDs[i + 1]; // tunnel id for the next hop
+            } else if (i == tempPeers.size() - 1) {
+                position = TunnelBuild.Record.TYPE.ENDPOINT;
+                if (isInbound) {
+                    next = router; // reply comes back to us at the endpoint
+                } else {
+                    // Forward reply through inbound tunnel gateway
+                    next = (RouterInfo) netDB.lookup(replyTo.getTunnelGW()); // get the router info for the gateway
+                    if (next == null)
+                        throw new IllegalStateException("Gateway of reply tunnel not found");
+                    nextTunnel = replyTo.getTunnelID(); // get the tunnel id for the gateway
+                }
+            } else {
+                position = TunnelBuild.Record.TYPE.PARTICIPANT;
+                next = tempPeers.get(i + 1);
+                nextTunnel = hopTunnelIDs[i + 1]; // tunnel id for the next hop
+            }
+            byte[] nextIdent = next.getHash();
+
+            TunnelBuild.Record record = new TunnelBuild.Record(
+                    toPeer,
+                    receiveTunnel,
+                    current.getHash(),
+                    nextTunnel,
+                    nextIdent,
+                    layerKey,
+                    layerIv,
+                    ivKey,
+                    replyKey,
+                    replyIv,
+                    requestTime,
+                    sendMessageID,
+                    position,
+                    hopInfoInput, // only gateway gets this not null
+                    replyFlag); // flips to true in response if good
+
+            records.add(record);
+        }
+
+        // set the first record hop info to the list
+        TunnelBuild.Record firstRecord = records.get(0);
+        firstRecord.setHopInfo(hopInfo); // set the hop info for the first record
+
+        // save this list of peers to the tunnel manager for easy access later, registered before sending so a fast
+        // reply is not missed
+        PooledTunnel pooled = new PooledTunnel(tunnelID, hopTunnelIDs[hopTunnelIDs.length - 1], requestTime);
+        if (isInbound) {
+            tunnelManager.addInboundTunnel(tunnelID, potentialTunnel);
+            pendingInbound.put(pooled.endpointTunnelID, pooled);
+        } else {
+            tunnelManager.addOutboundTunnel(tunnelID, potentialTunnel);
+            outbound.put(tunnelID, pooled);
+        }
+
+        // save the reply keys of each record, hybrid encryption clears them from the record
+        ArrayList<SecretKey> replyKeys = new ArrayList<>();
+        ArrayList<byte[]> replyIvs = new ArrayList<>();
+        for (int i = 0; i < records.size(); i++) {
+            TunnelBuild.Record record = records.get(i);
+            replyKeys.add(record.getReplyKey()); // save the reply key for the record
+            replyIvs.add(record.getReplyIv());
+        }
+
+        // first record is not encrypted with AES, it is the gateway record
+        // second record is encrypted with replyKey from the first record
+        // third record is encrypted with the reply key from record 2 THEN from record 1
+        // and so on
+        // a record only needs the reply keys before it so records are encrypted in parallel on the common ForkJoin
+        // pool, each gets all of its AES layers in one pass, forEach rethrows if a record could not be encrypted
+        IntStream.range(0, records.size()).parallel().forEach(i -> {
+            TunnelBuild.Record record = records.get(i);
+            record.hybridEncrypt(tempPeers.get(i).getRouterID().getElgamalPublicKey(), replyKeys.get(i));
+
+            ArrayList<SecretKey> layerKeys = new ArrayList<>(i);
+            ArrayList<byte[]> layerIvs = new ArrayList<>(i);
+            for (int j = i - 1; j >= 0; j--) { // Encrypt using reply keys from all previous records
+                layerKeys.add(replyKeys.get(j));
+                layerIvs.add(replyIvs.get(j));
+            }
+            record.layeredEncrypt(layerKeys, layerIvs);
+        });
+
+        // send tunnel build message to the first peer in the list
+        RouterInfo firstPeer = tempPeers.get(0);
+        I2NPHeader tunnelBuildMessage = new I2NPHeader(I2NPHeader.TYPE.TUNNELBUILD, random.nextInt(),
+                System.currentTimeMillis() + 100, new TunnelBuild(records));
+        try {
+            transport.sendMessage(tunnelBuildMessage, firstPeer);
+        } catch (IOException e) {
+            log.error("TunnelPool: Could not send tunnel build message", e);
+        }
+        log.debug("TunnelPool: Building " + (isInbound ? "inbound" : "outbound") + " tunnel " + tunnelID);
+        return pooled;
+    }
+
+    /**
+     * Generate a new AES key for the tunnel
+     *
+     * @param i Size of the key in bits
+     * @return SecretKey for the tunnel
+     */
+    private SecretKey generateAESKey(int i) {
+        try {
+            KeyGenerator keyGen = KeyGenerator.getInstance("AES");
+            keyGen.init(i);
+            return keyGen.generateKey();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e); // should never hit case
+        }
+    }
+
+    /**
+     * Tunnel built by the pool
+     */
+    private static final class PooledTunnel {
+        /**
+         * Tunnel ID of gateway, tunnel is stored under this ID in the tunnel manager
+         */
+        private final int gatewayTunnelID;
+        /**
+         * Tunnel ID of endpoint
+         */
+        private final int endpointTunnelID;
+        /**
+         * Time build was sent in milliseconds
+         */
+        private final long builtAt;
+        /**
+         * Lease of inbound tunnel, set once its build reply arrives
+         */
+        private Lease lease;
+        /**
+         * Queue of session inbound tunnel was given to
+         */
+        private volatile ConcurrentLinkedQueue<I2CPMessage> messages;
+        /**
+         * Set once a session was given a replacement for this tunnel, it is left out of the session's leases
+         */
+        private volatile boolean renewed;
+
+        private PooledTunnel(int gatewayTunnelID, int endpointTunnelID, long builtAt) {
+            this.gatewayTunnelID = gatewayTunnelID;
+            this.endpointTunnelID = endpointTunnelID;
+            this.builtAt = builtAt;
+        }
+
+        /**
+         * @return true if tunnel is not due to be replaced yet
+         */
+        private boolean isFresh(long now) {
+            return now - builtAt < TunnelManager.TUNNEL_LIFETIME_MILLIS - REBUILD_LEAD_MILLIS;
+        }
+
+        private boolean isExpired(long now) {
+            return now - builtAt >= TunnelManager.TUNNEL_LIFETIME_MILLIS;
+        }
+    }
+}
@@ -83,6 +83,17 @@ public final class Logger {
         this.minLevel = level;
     }
 
+    /**
+     * Checks if messages at a level would be printed, use to skip building
+     * expensive messages that would be discarded.
+     *
+     * @param level severity to check
+     * @return {@code true} if {@code level} is at or above the minimum level
+     */
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= minLevel.ordinal();
+    }
+
     /* ---------------------------------------------------------------------
      * Logging API – convenience wrappers
      * ------------------------------------------------------------------- */
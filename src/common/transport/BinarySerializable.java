@@ -0,0 +1,27 @@
+package common.transport;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.ByteBuffer;
+
+/**
+ * Objects which can be written to and read from the compact binary I2NP wire format
+ *
+ * @apiNote binary counterpart of {@code JSONSerializable}, see {@link I2NPCodec} for helpers and framing
+ */
+public interface BinarySerializable {
+    /**
+     * Write this object in binary form
+     * @param out Stream to write object to
+     * @throws IOException if an I/O error occurs while writing
+     */
+    void writeBinary(DataOutputStream out) throws IOException;
+
+    /**
+     * Read this object from binary form, the position of {@code buf} is advanced past the object
+     * @param buf Buffer to read object from
+     * @throws InvalidObjectException throws if bytes are not valid for this type
+     */
+    void readBinary(ByteBuffer buf) throws InvalidObjectException;
+}
@@ -0,0 +1,82 @@
+package common.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe pool of reusable direct buffers for receiving datagrams
+ *
+ * <p>Buffers are allocated lazily, when the pool is empty a new buffer is allocated and once {@code capacity} buffers
+ * are pooled any extra released buffers are left for the garbage collector.</p>
+ */
+public class BufferPool {
+    /**
+     * Largest possible UDP payload
+     */
+    public static final int MAX_DATAGRAM_SIZE = 65_507;
+
+    /**
+     * Buffers ready to be used
+     */
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    /**
+     * Number of buffers in {@code free}, tracked separately since size() of a ConcurrentLinkedQueue is O(n)
+     */
+    private final AtomicInteger freeCount = new AtomicInteger();
+    /**
+     * Size of each buffer in bytes
+     */
+    private final int bufferSize;
+    /**
+     * Max number of buffers kept in pool
+     */
+    private final int capacity;
+
+    /**
+     * Create buffer pool of datagram sized buffers
+     * @param capacity Max number of buffers to keep in pool
+     */
+    public BufferPool(int capacity) {
+        this(capacity, MAX_DATAGRAM_SIZE);
+    }
+
+    /**
+     * Create buffer pool
+     * @param capacity Max number of buffers to keep in pool
+     * @param bufferSize Size of each buffer in bytes
+     */
+    public BufferPool(int capacity, int bufferSize) {
+        if (capacity < 1 || bufferSize < 1)
+            throw new IllegalArgumentException("capacity and bufferSize must be positive");
+        this.capacity = capacity;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Get a cleared buffer from the pool, allocating one if the pool is empty
+     * @return Buffer ready to be written to
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buf = free.poll();
+        if (buf == null)
+            return ByteBuffer.allocateDirect(bufferSize);
+
+        freeCount.decrementAndGet();
+        return buf;
+    }
+
+    /**
+     * Return buffer to the pool, buffer must not be used by caller after it is released
+     * @param buf Buffer acquired from this pool
+     */
+    public void release(ByteBuffer buf) {
+        if (buf.capacity() != bufferSize || freeCount.incrementAndGet() > capacity) {
+            if (buf.capacity() == bufferSize)
+                freeCount.decrementAndGet();
+            return; //pool is full let buffer be garbage collected
+        }
+        buf.clear();
+        free.offer(buf);
+    }
+}
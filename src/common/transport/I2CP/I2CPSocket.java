@@ -10,6 +10,7 @@ import java.io.InvalidObjectException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.function.Function;
 
 public class I2CPSocket extends Socket {
     /**
@@ -20,6 +21,10 @@ public class I2CPSocket extends Socket {
      * Output stream
      */
     private BufferedOutputStream send;
+    /**
+     * Answers RequestLeaseSets router sends during a session, null if they are returned by {@link #getMessage()}
+     */
+    private volatile Function<RequestLeaseSet, CreateLeaseSet> leaseSetHandler;
 
     /**
      * Constructs a new I2CPSocket stream and connects to port {@code port} on named host {@code host}
@@ -50,7 +55,7 @@ public class I2CPSocket extends Socket {
      * Send an I2CPMessage along the input stream C<->R
      * @param message I2CPMessage to send
      */
-    public void sendMessage(I2CPMessage message) throws IOException {
+    public synchronized void sendMessage(I2CPMessage message) throws IOException {
         byte[] jsonbytes = message.serialize().getBytes(StandardCharsets.UTF_8);
         send.write(ByteBuffer.allocate(Integer.BYTES).putInt(jsonbytes.length).array());
         send.write(jsonbytes);
@@ -58,11 +63,35 @@ public class I2CPSocket extends Socket {
     }
 
     /**
-     * Receives I2CPMessage on this Socket's input stream
+     * Answer RequestLeaseSets router sends when it replaces a session's tunnels instead of returning them from
+     * {@link #getMessage()}, set by clients once their session is created
+     * @param handler Creates LeaseSet for the leases requested
+     */
+    public void setLeaseSetHandler(Function<RequestLeaseSet, CreateLeaseSet> handler) {
+        this.leaseSetHandler = handler;
+    }
+
+    /**
+     * Receives I2CPMessage on this Socket's input stream, RequestLeaseSets are answered first if a lease set handler
+     * is set
      * @return I2CPMessage child class received by Socket
      * @throws InvalidObjectException throws if received string cannot be parsed or is of wrong type
      */
     public I2CPMessage getMessage() throws InvalidObjectException {
+        while (true) {
+            I2CPMessage message = readMessage();
+            Function<RequestLeaseSet, CreateLeaseSet> handler = leaseSetHandler;
+            if (handler == null || message.getType() != I2CPMessageTypes.REQUESTLEASESET)
+                return message;
+            try {
+                sendMessage(handler.apply((RequestLeaseSet) message));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private I2CPMessage readMessage() throws InvalidObjectException {
         try {
             int len = ByteBuffer.wrap(recv.readNBytes(4)).getInt();
 
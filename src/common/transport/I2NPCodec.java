@@ -0,0 +1,191 @@
+package common.transport;
+
+import common.I2P.I2NP.I2NPHeader;
+import merrimackutil.json.JsonIO;
+import merrimackutil.json.types.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes I2NP messages for the wire
+ *
+ * <p>Two encodings are supported, the original JSON encoding and a compact length-prefixed binary encoding. Binary
+ * datagrams start with a version byte {@link #BINARY_VERSION} while JSON datagrams always start with '{', so a router
+ * can read both regardless of which format it sends. This lets JSON and binary routers talk while rolling out.</p>
+ *
+ * @implNote byte fields are prefixed with an unsigned 2 byte length, {@code 0xFFFF} marks a null field. UDP datagrams
+ * are at most 65,507 bytes so no single field can reach this length.
+ */
+public final class I2NPCodec {
+    /**
+     * Format used to encode outgoing I2NP messages
+     */
+    public enum Format {
+        JSON,
+        BINARY
+    }
+
+    /**
+     * Version byte leading every binary encoded I2NP message
+     */
+    public static final byte BINARY_VERSION = 0x02;
+    /**
+     * First byte of every JSON encoded I2NP message
+     */
+    private static final byte JSON_START = '{';
+    /**
+     * Length prefix marking a null byte field
+     */
+    private static final int NULL_LENGTH = 0xFFFF;
+
+    /**
+     * Format used for outgoing messages, routers accept both formats so this only effects sending
+     */
+    private static volatile Format outboundFormat = Format.JSON;
+
+    private I2NPCodec() {}
+
+    /**
+     * Set format used to encode outgoing messages
+     * @param format Format to send messages in
+     */
+    public static void setOutboundFormat(Format format) {
+        if (format == null)
+            throw new NullPointerException("format");
+        outboundFormat = format;
+    }
+
+    public static Format getOutboundFormat() {
+        return outboundFormat;
+    }
+
+    /**
+     * Encode I2NP message using the current outbound format
+     * @param message Message to encode
+     * @return bytes of message ready to be sent
+     */
+    public static byte[] encode(I2NPHeader message) {
+        if (outboundFormat == Format.JSON)
+            return message.serialize().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(BINARY_VERSION);
+            message.writeBinary(out);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e); //should never hit case writing to memory
+        }
+    }
+
+    /**
+     * Decode an I2NP message in either format, the remaining bytes of {@code buf} must contain exactly one message
+     * @param buf Buffer holding encoded message
+     * @return Decoded I2NP message
+     * @throws InvalidObjectException throws if message is malformed or of an unknown version
+     */
+    public static I2NPHeader decode(ByteBuffer buf) throws InvalidObjectException {
+        if (!buf.hasRemaining())
+            throw new InvalidObjectException("Empty I2NP message");
+
+        byte first = buf.get(buf.position());
+        try {
+            if (first == BINARY_VERSION) {
+                buf.get(); //skip version
+                return new I2NPHeader(buf);
+            }
+            if (first == JSON_START) {
+                JSONObject obj = JsonIO.readObject(StandardCharsets.UTF_8.decode(buf).toString());
+                return new I2NPHeader(obj);
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException | ClassCastException e) {
+            throw new InvalidObjectException("Malformed I2NP message " + e);
+        }
+        throw new InvalidObjectException("Unknown I2NP message version " + first);
+    }
+
+    /**
+     * Write length prefixed bytes
+     * @param out Stream to write to
+     * @param bytes Bytes to write, may be null
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeShort(NULL_LENGTH);
+            return;
+        }
+        if (bytes.length >= NULL_LENGTH)
+            throw new IllegalArgumentException("Field too large for I2NP message " + bytes.length);
+
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read length prefixed bytes
+     * @param buf Buffer to read from
+     * @return bytes read, or null if a null field was written
+     * @throws InvalidObjectException throws if length is larger than the bytes remaining
+     */
+    public static byte[] readBytes(ByteBuffer buf) throws InvalidObjectException {
+        int length = Short.toUnsignedInt(buf.getShort());
+        if (length == NULL_LENGTH)
+            return null;
+        if (length > buf.remaining())
+            throw new InvalidObjectException("Field length " + length + " larger than message");
+
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string
+     * @param out Stream to write to
+     * @param string String to write
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeString(DataOutputStream out, String string) throws IOException {
+        writeBytes(out, string == null ? null : string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Read a length prefixed UTF-8 string
+     * @param buf Buffer to read from
+     * @return String read or null if a null field was written
+     * @throws InvalidObjectException throws if length is larger than the bytes remaining
+     */
+    public static String readString(ByteBuffer buf) throws InvalidObjectException {
+        byte[] bytes = readBytes(buf);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a JSON object as an opaque length prefixed blob
+     * @param out Stream to write to
+     * @param json JSON to write, may be null
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeJSON(DataOutputStream out, JSONObject json) throws IOException {
+        writeString(out, json == null ? null : json.toJSON());
+    }
+
+    /**
+     * Read a JSON object written by {@link #writeJSON(DataOutputStream, JSONObject)}
+     * @param buf Buffer to read from
+     * @return JSONObject read or null if a null field was written
+     * @throws InvalidObjectException throws if length is larger than the bytes remaining
+     */
+    public static JSONObject readJSON(ByteBuffer buf) throws InvalidObjectException {
+        String json = readString(buf);
+        return json == null ? null : JsonIO.readObject(json);
+    }
+}
@@ -0,0 +1,177 @@
+package common.transport;
+
+import common.I2P.I2NP.I2NPHeader;
+import common.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.function.Consumer;
+
+/**
+ * Receives I2NP messages on a bound datagram channel and hands them to a dispatcher
+ *
+ * <p>Datagrams are read into pooled direct buffers and decoded straight from the buffer, once the decoded message has
+ * been dispatched the buffer goes back to the pool, so steady state receiving does not allocate per packet buffers.</p>
+ */
+public class I2NPReceiver implements Runnable, Closeable {
+    /**
+     * Channel messages are received on
+     */
+    private final DatagramChannel channel;
+    /**
+     * Selector waiting for the channel to be readable
+     */
+    private final Selector selector;
+    /**
+     * Pool of buffers to receive into
+     */
+    private final BufferPool pool;
+    /**
+     * Called with each decoded message
+     */
+    private final Consumer<I2NPHeader> dispatcher;
+    /**
+     * Logger
+     */
+    private final Logger log = Logger.getInstance();
+
+    /**
+     * Create receiver bound to an address
+     * @param bindAddress Address and port to receive messages on
+     * @param pool Pool of buffers to receive into, may be shared between receivers
+     * @param dispatcher Called on the receive thread with each decoded message, should hand off work quickly
+     * @throws IOException if channel could not be opened or bound
+     */
+    public I2NPReceiver(InetSocketAddress bindAddress, BufferPool pool, Consumer<I2NPHeader> dispatcher)
+            throws IOException {
+        this(bindAddress, pool, dispatcher, false);
+    }
+
+    /**
+     * Create receiver bound to an address
+     * @param bindAddress Address and port to receive messages on
+     * @param pool Pool of buffers to receive into, may be shared between receivers
+     * @param dispatcher Called on the receive thread with each decoded message, should hand off work quickly
+     * @param reusePort Set SO_REUSEPORT so several receivers can bind the same port, the kernel will balance
+     *                  datagrams between them
+     * @throws IOException if channel could not be opened or bound
+     * @throws UnsupportedOperationException if reusePort is set but SO_REUSEPORT is not supported
+     * @see #isReusePortSupported()
+     */
+    public I2NPReceiver(InetSocketAddress bindAddress, BufferPool pool, Consumer<I2NPHeader> dispatcher,
+                        boolean reusePort) throws IOException {
+        this.pool = pool;
+        this.dispatcher = dispatcher;
+        this.selector = Selector.open();
+        this.channel = DatagramChannel.open();
+        try {
+            if (reusePort)
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            channel.configureBlocking(false);
+            channel.bind(bindAddress);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException | UnsupportedOperationException e) {
+            closeChannel(); //not close() which a subclass may override before it is initialized
+            throw e;
+        }
+    }
+
+    /**
+     * Check if this platform lets several datagram channels share a port with SO_REUSEPORT
+     * @return true if SO_REUSEPORT is supported
+     */
+    public static boolean isReusePortSupported() {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Receive and dispatch messages until this receiver is closed
+     */
+    @Override
+    public void run() {
+        try {
+            while (channel.isOpen()) {
+                selector.select();
+                selector.selectedKeys().clear();
+                drain();
+            }
+        } catch (ClosedSelectorException e) {
+            //receiver was closed
+        } catch (IOException e) {
+            if (channel.isOpen())
+                log.error("Receiver: IO error while getting message", e);
+        }
+    }
+
+    /**
+     * Read every datagram currently waiting on the channel
+     * @throws IOException if an I/O error occurs while receiving
+     */
+    private void drain() throws IOException {
+        while (true) {
+            ByteBuffer buf = pool.acquire();
+            try {
+                if (channel.receive(buf) == null)
+                    return; //nothing left to read
+
+                buf.flip();
+                I2NPHeader message;
+                try {
+                    message = I2NPCodec.decode(buf);
+                } catch (InvalidObjectException e) {
+                    log.warn("Receiver: Dropping malformed message " + e.getMessage());
+                    continue;
+                } catch (RuntimeException e) {
+                    // a bad datagram must not stop this receiver
+                    log.warn("Receiver: Dropping message which could not be decoded", e);
+                    continue;
+                }
+                try {
+                    dispatcher.accept(message);
+                } catch (RuntimeException e) {
+                    log.error("Receiver: Could not dispatch " + message.getType() + " dropping message", e);
+                }
+            } finally {
+                pool.release(buf);
+            }
+        }
+    }
+
+    /**
+     * Get address this receiver is bound to
+     * @return Bound address
+     * @throws IOException if an I/O error occurs
+     */
+    public InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) channel.getLocalAddress();
+    }
+
+    /**
+     * Stop receiving and close the channel
+     */
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Receiver: Could not close channel", e);
+        }
+    }
+}
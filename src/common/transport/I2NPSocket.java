@@ -3,12 +3,10 @@ package common.transport;
 import common.I2P.I2NP.I2NPHeader;
 import common.I2P.NetworkDB.RouterInfo;
 import common.Logger;
-import merrimackutil.json.JsonIO;
-import merrimackutil.json.types.JSONObject;
 
 import java.io.IOException;
 import java.net.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 
 public class I2NPSocket extends DatagramSocket {
     /**
@@ -40,7 +38,7 @@ public class I2NPSocket extends DatagramSocket {
      * @throws IllegalArgumentException if remoteSocketAddress is null
      */
     public void sendMessage(I2NPHeader message, RouterInfo toSend) throws IOException {
-        byte[] messageByte = message.serialize().getBytes(StandardCharsets.UTF_8);
+        byte[] messageByte = I2NPCodec.encode(message);
         //if (messageByte.length > MAX_SIZE)
             //throw new RuntimeException("Bytes is over max size! We will need to increase max size");
 
@@ -60,7 +58,7 @@ public class I2NPSocket extends DatagramSocket {
      * @apiNote {@code sendMessage(I2NPHeader message, InetSocketAddress address)} possibly more desirable
      */
     public void sendMessage(I2NPHeader message, String host, int port) throws IOException {
-        byte[] messageByte = message.serialize().getBytes(StandardCharsets.UTF_8);
+        byte[] messageByte = I2NPCodec.encode(message);
 
         InetSocketAddress toSendAddress = new InetSocketAddress(host, port);
 
@@ -75,25 +73,23 @@ public class I2NPSocket extends DatagramSocket {
      * @throws IOException if IO error occurs while sending
      */
     public void sendMessage(I2NPHeader message, InetSocketAddress address) throws IOException {
-        byte[] messageByte = message.serialize().getBytes(StandardCharsets.UTF_8);
+        byte[] messageByte = I2NPCodec.encode(message);
 
         DatagramPacket pkt = new DatagramPacket(messageByte, messageByte.length, address);
         send(pkt);
     }
 
     /**
-     * Gets an I2NPMessage over this Datagram socket
+     * Gets an I2NPMessage over this Datagram socket, message may be JSON or binary encoded
      * @return I2NPMessage
      * @throws IOException if an I/O error occurs.
+     * @throws java.io.InvalidObjectException if message received is malformed
      */
     public I2NPHeader getMessage() throws IOException {
         //very hacky we have big packets ;)
         DatagramPacket pkt = new DatagramPacket(new byte[64_000], 64_000); //size is always an issue for me -seth
         receive(pkt);
-        //this is a hacky trick  to only get bytes received in message real protocols add lengths to avoid this issue
-        //We are fake mathematician and Engineers anyways whats a little hack among friends
-        String json = new String(pkt.getData(), 0, pkt.getLength(), StandardCharsets.UTF_8);
-        JSONObject obj = JsonIO.readObject(json);
-        return new I2NPHeader(obj);
+        //only decode bytes received in message, codec will figure out if message is JSON or binary
+        return I2NPCodec.decode(ByteBuffer.wrap(pkt.getData(), 0, pkt.getLength()));
     }
 }
@@ -0,0 +1,151 @@
+package common.transport;
+
+import common.I2P.I2NP.I2NPHeader;
+import common.I2P.NetworkDB.RouterInfo;
+import common.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Router wide service for sending I2NP messages, all outgoing messages are multiplexed over a small pool of long-lived
+ * datagram channels instead of opening a socket for each send
+ *
+ * @implNote channels are non-blocking and {@link DatagramChannel#send(ByteBuffer, java.net.SocketAddress)} is safe to
+ * call from many threads, sends are spread round-robin over the pool to reduce contention on a single channel
+ */
+public class OutboundTransport implements Closeable {
+    /**
+     * Maximum number of resolved addresses to cache before the cache is cleared
+     */
+    private static final int MAX_CACHED_ADDRESSES = 1024;
+
+    /**
+     * Pool of channels used for sending
+     */
+    private final DatagramChannel[] channels;
+    /**
+     * Index of next channel to send on
+     */
+    private final AtomicInteger next = new AtomicInteger();
+    /**
+     * Resolved addresses of peers under "host:port"
+     */
+    private final ConcurrentHashMap<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    /**
+     * Logger
+     */
+    private final Logger log = Logger.getInstance();
+
+    /**
+     * Create outbound transport, each channel is bound to an ephemeral port on the wildcard address
+     * @param channelCount Number of channels to send on, must be at least 1
+     * @throws IOException if a channel could not be opened or bound
+     */
+    public OutboundTransport(int channelCount) throws IOException {
+        if (channelCount < 1)
+            throw new IllegalArgumentException("channelCount must be at least 1");
+
+        channels = new DatagramChannel[channelCount];
+        try {
+            for (int i = 0; i < channelCount; i++) {
+                channels[i] = DatagramChannel.open();
+                channels[i].configureBlocking(false);
+                channels[i].bind(null);
+            }
+        } catch (IOException e) {
+            closeChannels(); //not close() which a subclass may override before it is initialized
+            throw e;
+        }
+    }
+
+    /**
+     * Send I2NP message to a router
+     * @param message I2NP message to send
+     * @param toSend Router to send message to
+     * @return true if message was handed to the network, false if it was dropped
+     * @throws IOException if an I/O error occurs while sending
+     */
+    public boolean sendMessage(I2NPHeader message, RouterInfo toSend) throws IOException {
+        log.debug("Sending message " + message.getType() + " to " + toSend.getPort());
+        return sendMessage(message, toSend.getHost(), toSend.getPort());
+    }
+
+    /**
+     * Send I2NP message to a host and port
+     * @param message I2NP message to send
+     * @param host Host to send message to
+     * @param port Port to send message to
+     * @return true if message was handed to the network, false if it was dropped
+     * @throws IOException if an I/O error occurs while sending
+     */
+    public boolean sendMessage(I2NPHeader message, String host, int port) throws IOException {
+        return sendMessage(message, resolve(host, port));
+    }
+
+    /**
+     * Send I2NP message to an address
+     * @param message I2NP message to send
+     * @param address Address to send message to
+     * @return true if message was handed to the network, false if it was dropped
+     * @throws IOException if an I/O error occurs while sending
+     */
+    public boolean sendMessage(I2NPHeader message, InetSocketAddress address) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(I2NPCodec.encode(message));
+        DatagramChannel channel = channels[Math.floorMod(next.getAndIncrement(), channels.length)];
+
+        //non-blocking channel sends nothing if the socket buffer is full, UDP is unreliable anyway so drop it
+        if (channel.send(bytes, address) == 0) {
+            log.warn("Send buffer full dropping " + message.getType() + " message to " + address);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get cached address for host and port, resolving it if we have not seen it before
+     * @param host Host of address
+     * @param port Port of address
+     * @return Resolved address
+     */
+    private InetSocketAddress resolve(String host, int port) {
+        String key = host + ":" + port;
+        InetSocketAddress address = addresses.get(key);
+        if (address != null)
+            return address;
+
+        address = new InetSocketAddress(host, port);
+        //do not cache failed lookups so we try again next time
+        if (!address.isUnresolved()) {
+            if (addresses.size() >= MAX_CACHED_ADDRESSES)
+                addresses.clear();
+            addresses.put(key, address);
+        }
+        return address;
+    }
+
+    /**
+     * Close all channels of this transport
+     */
+    @Override
+    public void close() {
+        closeChannels();
+    }
+
+    private void closeChannels() {
+        for (DatagramChannel channel : channels) {
+            if (channel == null)
+                continue;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Could not close outbound channel", e);
+            }
+        }
+    }
+}